@@ -0,0 +1,92 @@
+import java.util.Locale;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+
+// The allocator hierarchy of the process: a single RootAllocator, one child per query (and one for the
+// catalog, which outlives queries), and below a query one child per operator (reducer, semi-joins,
+// enumerator). Every allocator tracks its current and peak usage and can be capped; a limit applies to
+// the whole subtree, so a query stays within its budget whatever its operators do. Going over a limit
+// throws an OutOfMemoryException from the allocation that crossed it, which the query can catch to
+// fail on its own, well before the JVM runs out of direct memory.
+//
+// Closing an allocator that still has buffers outstanding throws, so leaks show up where they happen
+// instead of when the process dies.
+final class Allocators {
+    // Caps for the whole process and for every query, in bytes (--memory-limit, --query-memory-limit).
+    // A scan shares the catalog's column buffers instead of copying them, and Arrow accounts a shared
+    // buffer to the allocator that created it: the scanned relations count against the catalog, so
+    // the query limit only caps what the query allocates on top of them (hash tables, gathered rows,
+    // dictionaries, answers). The process limit covers both.
+    static long processLimit = Long.MAX_VALUE;
+    static long queryLimit = Long.MAX_VALUE;
+
+    private static RootAllocator root;
+
+    private Allocators() {
+    }
+
+    // The process-wide root, created on first use with the process limit
+    static synchronized BufferAllocator root() {
+        if (root == null) {
+            root = new RootAllocator(processLimit);
+        }
+        return root;
+    }
+
+    // Budget of one query, under the root
+    static BufferAllocator newQuery(String name) {
+        return root().newChildAllocator(name, 0, queryLimit);
+    }
+
+    // Accounting for one operator; its usage also counts against every ancestor's limit
+    static BufferAllocator newOperator(BufferAllocator parent, String name) {
+        return parent.newChildAllocator(name, 0, Long.MAX_VALUE);
+    }
+
+    // Current, peak and limit of an allocator and of all its children, one line per allocator
+    static String report(BufferAllocator allocator) {
+        StringBuilder report = new StringBuilder();
+        report(allocator, "", report);
+        return report.toString();
+    }
+
+    private static void report(BufferAllocator allocator, String indent, StringBuilder report) {
+        report.append(indent).append(allocator.getName())
+                .append(": current ").append(bytes(allocator.getAllocatedMemory()))
+                .append(", peak ").append(bytes(allocator.getPeakMemoryAllocation()))
+                .append(", limit ").append(allocator.getLimit() == Long.MAX_VALUE ? "none" : bytes(allocator.getLimit()))
+                .append('\n');
+        for (BufferAllocator child : allocator.getChildAllocators()) {
+            report(child, indent + "  ", report);
+        }
+    }
+
+    static String bytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        int unit = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+        return String.format(Locale.ROOT, "%.1f %siB", bytes / (double) (1L << (10 * unit)), "KMGTPE".charAt(unit - 1));
+    }
+
+    // Sizes as given on the command line: a number of bytes, optionally followed by k, m or g
+    static long parseSize(String size) {
+        String s = size.trim().toLowerCase(Locale.ROOT);
+        long unit = 1;
+        char last = s.isEmpty() ? ' ' : s.charAt(s.length() - 1);
+        if (last == 'k' || last == 'm' || last == 'g') {
+            unit = last == 'k' ? 1L << 10 : last == 'm' ? 1L << 20 : 1L << 30;
+            s = s.substring(0, s.length() - 1);
+        }
+        try {
+            long value = Long.parseLong(s);
+            if (value <= 0) {
+                throw new NumberFormatException();
+            }
+            return Math.multiplyExact(value, unit);
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException("Invalid size: " + size);
+        }
+    }
+}
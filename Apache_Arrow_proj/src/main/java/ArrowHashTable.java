@@ -0,0 +1,315 @@
+import java.util.List;
+
+import org.apache.arrow.memory.ArrowBuf;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.util.ByteFunctionHelpers;
+import org.apache.arrow.vector.BaseFixedWidthVector;
+import org.apache.arrow.vector.BaseVariableWidthVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.ValueVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.types.Types.MinorType;
+
+// Open-addressing hash table from join keys to int values, stored off-heap in one ArrowBuf.
+// A slot does not copy the key: it records where the key lives on the build side, so every slot is
+// 16 bytes (key hash, build batch + 1 with 0 for an empty slot, build row, value), whatever the key.
+// Keys are hashed and compared straight from the vectors' buffers, with a specialized path per layout:
+//  - 4-byte fixed width (IntVector, DateDayVector, Float4Vector, ...): one getInt,
+//  - 8-byte fixed width (BigIntVector, Float8Vector, ...): one getLong,
+//  - variable width (VarCharVector, VarBinaryVector): byte range between two offsets.
+// Like CompositeKey, both sides of a comparison must have the same minor type, and fixed-width values
+// are compared by their bytes. Building and probing allocate nothing per row; the table is only
+// resized when it gets half full, and the build is pre-sized so that rarely happens.
+//
+// Probing only reads the buffer, so one table can be shared by several probing threads once built.
+final class ArrowHashTable implements AutoCloseable {
+    static final int NONE = -1;
+
+    private static final int SLOT_WIDTH = 16;
+    private static final int HASH = 0;
+    private static final int BATCH = 4;     // build batch + 1, 0 marks an empty slot
+    private static final int ROW = 8;
+    private static final int VALUE = 12;
+
+    private final BufferAllocator allocator;
+    private final Keys[] buildKeys;         // key columns of every build batch
+    private ArrowBuf slots;
+    private int capacity;                   // power of two
+    private int size = 0;
+
+    // Empty table for keys of the given build batches, sized for expectedKeys distinct keys
+    ArrowHashTable(Keys[] buildKeys, int expectedKeys, BufferAllocator allocator) {
+        this.allocator = allocator;
+        this.buildKeys = buildKeys;
+        this.capacity = capacityFor(expectedKeys);
+        this.slots = allocateSlots(capacity);
+    }
+
+    // True when every key column has a specialized layout, with the same minor types on both sides
+    static boolean supports(List<VectorSchemaRoot> left, List<VectorSchemaRoot> right, List<String> columns) {
+        MinorType[] types = new MinorType[columns.size()];
+        for (List<VectorSchemaRoot> side : List.of(left, right)) {
+            for (VectorSchemaRoot batch : side) {
+                for (int c = 0; c < types.length; c++) {
+                    ValueVector vector = batch.getVector(columns.get(c));
+                    if (vector == null || Keys.layoutOf(vector) == Keys.UNSUPPORTED) {
+                        return false;
+                    }
+                    if (types[c] == null) {
+                        types[c] = vector.getMinorType();
+                    } else if (types[c] != vector.getMinorType()) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    // Set of the keys of the live rows (selection null = every row) of the batches, rows with a null
+    // key left out; the value of every key is its first row's position in the batch
+    static ArrowHashTable keySet(List<VectorSchemaRoot> batches, int[][] selection, List<String> columns,
+                                 int expectedKeys, BufferAllocator allocator) {
+        Keys[] keys = new Keys[batches.size()];
+        for (int b = 0; b < keys.length; b++) {
+            keys[b] = Keys.of(batches.get(b), columns);
+        }
+        ArrowHashTable table = new ArrowHashTable(keys, expectedKeys, allocator);
+        try {
+            for (int b = 0; b < keys.length; b++) {
+                int[] rows = selection == null ? null : selection[b];
+                int liveCount = rows == null ? batches.get(b).getRowCount() : rows.length;
+                for (int k = 0; k < liveCount; k++) {
+                    int row = rows == null ? k : rows[k];
+                    if (!keys[b].hasNull(row)) {
+                        table.putIfAbsent(b, row, keys[b].hash(row), row);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            table.close();
+            throw e;
+        }
+        return table;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Maps the key of (batch, row) to value; returns the value it replaced, NONE for a new key
+    int put(int batch, int row, int hash, int value) {
+        long slot = find(buildKeys[batch], row, hash);
+        if (slots.getInt(slot + BATCH) != 0) {
+            int previous = slots.getInt(slot + VALUE);
+            slots.setInt(slot + VALUE, value);
+            return previous;
+        }
+        insert(slot, batch, row, hash, value);
+        return NONE;
+    }
+
+    // Maps the key of (batch, row) to value unless it is there already; returns the value in the table
+    int putIfAbsent(int batch, int row, int hash, int value) {
+        long slot = find(buildKeys[batch], row, hash);
+        if (slots.getInt(slot + BATCH) != 0) {
+            return slots.getInt(slot + VALUE);
+        }
+        insert(slot, batch, row, hash, value);
+        return value;
+    }
+
+    // Value of the key at the given row of a probe batch, NONE when absent
+    int get(Keys probe, int row, int hash) {
+        long slot = find(probe, row, hash);
+        return slots.getInt(slot + BATCH) == 0 ? NONE : slots.getInt(slot + VALUE);
+    }
+
+    boolean contains(Keys probe, int row, int hash) {
+        return slots.getInt(find(probe, row, hash) + BATCH) != 0;
+    }
+
+    // Linear probing: the slot holding the key, or the empty slot where it would go
+    private long find(Keys probe, int row, int hash) {
+        int mask = capacity - 1;
+        for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+            long slot = (long) i * SLOT_WIDTH;
+            int batch = slots.getInt(slot + BATCH);
+            if (batch == 0) {
+                return slot;
+            }
+            if (slots.getInt(slot + HASH) == hash
+                    && probe.equals(row, buildKeys[batch - 1], slots.getInt(slot + ROW))) {
+                return slot;
+            }
+        }
+    }
+
+    private void insert(long slot, int batch, int row, int hash, int value) {
+        slots.setInt(slot + HASH, hash);
+        slots.setInt(slot + BATCH, batch + 1);
+        slots.setInt(slot + ROW, row);
+        slots.setInt(slot + VALUE, value);
+        if (++size > capacity / 2) {
+            grow();
+        }
+    }
+
+    // Doubles the table; the stored hashes spare looking at the keys again
+    private void grow() {
+        ArrowBuf previous = slots;
+        int previousCapacity = capacity;
+        capacity *= 2;
+        slots = allocateSlots(capacity);
+        int mask = capacity - 1;
+        for (long from = 0; from < (long) previousCapacity * SLOT_WIDTH; from += SLOT_WIDTH) {
+            if (previous.getInt(from + BATCH) == 0) {
+                continue;
+            }
+            int i = spread(previous.getInt(from + HASH)) & mask;
+            while (slots.getInt((long) i * SLOT_WIDTH + BATCH) != 0) {
+                i = (i + 1) & mask;
+            }
+            slots.setBytes((long) i * SLOT_WIDTH, previous, from, SLOT_WIDTH);
+        }
+        previous.close();
+    }
+
+    private ArrowBuf allocateSlots(int slotCount) {
+        ArrowBuf buffer = allocator.buffer((long) slotCount * SLOT_WIDTH);
+        buffer.setZero(0, (long) slotCount * SLOT_WIDTH);
+        return buffer;
+    }
+
+    // At most half full for the expected number of keys
+    private static int capacityFor(int expectedKeys) {
+        long wanted = Math.max(16L, 2L * Math.max(0, expectedKeys));
+        if (wanted > 1 << 30) {
+            throw new IllegalArgumentException("Too many keys for one hash table: " + expectedKeys);
+        }
+        return Integer.highestOneBit((int) wanted - 1) << 1;
+    }
+
+    // Off-heap bytes of a table built for the given number of keys
+    static long bytesFor(long expectedKeys) {
+        long wanted = Math.max(16L, 2L * Math.max(0, expectedKeys));
+        return (Long.highestOneBit(wanted - 1) << 1) * SLOT_WIDTH;
+    }
+
+    // Key hashes of nearby values are close: mix the bits before masking
+    private static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public void close() {
+        slots.close();
+    }
+
+    // Key columns of one batch, resolved once to their buffers so per-row hashing and comparisons do not
+    // go through the ValueVector interface
+    static final class Keys {
+        static final byte UNSUPPORTED = 0;
+        static final byte FIXED_4 = 1;
+        static final byte FIXED_8 = 2;
+        static final byte VARIABLE = 3;
+
+        private final ValueVector[] vectors;
+        private final byte[] layouts;
+        private final ArrowBuf[] data;
+        private final ArrowBuf[] offsets;
+
+        private Keys(ValueVector[] vectors) {
+            this.vectors = vectors;
+            this.layouts = new byte[vectors.length];
+            this.data = new ArrowBuf[vectors.length];
+            this.offsets = new ArrowBuf[vectors.length];
+            for (int c = 0; c < vectors.length; c++) {
+                layouts[c] = layoutOf(vectors[c]);
+                if (layouts[c] == UNSUPPORTED) {
+                    throw new IllegalArgumentException("No hash table layout for " + vectors[c].getField());
+                }
+                data[c] = vectors[c].getDataBuffer();
+                offsets[c] = layouts[c] == VARIABLE ? vectors[c].getOffsetBuffer() : null;
+            }
+        }
+
+        static Keys of(VectorSchemaRoot batch, List<String> columns) {
+            ValueVector[] vectors = new ValueVector[columns.size()];
+            for (int c = 0; c < vectors.length; c++) {
+                vectors[c] = batch.getVector(columns.get(c));
+                if (vectors[c] == null) {
+                    throw new IllegalArgumentException("Join column " + columns.get(c) + " not found in " + batch.getSchema());
+                }
+            }
+            return new Keys(vectors);
+        }
+
+        static byte layoutOf(ValueVector vector) {
+            if (vector instanceof BaseVariableWidthVector) {
+                return VARIABLE;
+            }
+            if (vector instanceof BaseFixedWidthVector && !(vector instanceof BitVector)) {
+                int width = ((BaseFixedWidthVector) vector).getTypeWidth();
+                return width == 4 ? FIXED_4 : width == 8 ? FIXED_8 : UNSUPPORTED;
+            }
+            return UNSUPPORTED;
+        }
+
+        boolean hasNull(int row) {
+            for (ValueVector vector : vectors) {
+                if (vector.isNull(row)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int hash(int row) {
+            int h = 1;
+            for (int c = 0; c < layouts.length; c++) {
+                int valueHash;
+                switch (layouts[c]) {
+                    case FIXED_4:
+                        valueHash = data[c].getInt((long) row * 4);
+                        break;
+                    case FIXED_8:
+                        long value = data[c].getLong((long) row * 8);
+                        valueHash = (int) (value ^ (value >>> 32));
+                        break;
+                    default:
+                        valueHash = ByteFunctionHelpers.hash(data[c], offsets[c].getInt((long) row * 4),
+                                offsets[c].getInt((long) (row + 1) * 4));
+                }
+                h = 31 * h + valueHash;
+            }
+            return h;
+        }
+
+        boolean equals(int row, Keys other, int otherRow) {
+            for (int c = 0; c < layouts.length; c++) {
+                switch (layouts[c]) {
+                    case FIXED_4:
+                        if (data[c].getInt((long) row * 4) != other.data[c].getInt((long) otherRow * 4)) {
+                            return false;
+                        }
+                        break;
+                    case FIXED_8:
+                        if (data[c].getLong((long) row * 8) != other.data[c].getLong((long) otherRow * 8)) {
+                            return false;
+                        }
+                        break;
+                    default:
+                        if (ByteFunctionHelpers.equal(
+                                data[c], offsets[c].getInt((long) row * 4), offsets[c].getInt((long) (row + 1) * 4),
+                                other.data[c], other.offsets[c].getInt((long) otherRow * 4),
+                                other.offsets[c].getInt((long) (otherRow + 1) * 4)) == 0) {
+                            return false;
+                        }
+                }
+            }
+            return true;
+        }
+    }
+}
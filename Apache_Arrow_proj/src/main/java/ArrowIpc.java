@@ -0,0 +1,177 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.arrow.flatbuf.MessageHeader;
+import org.apache.arrow.memory.ArrowBuf;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.ForeignAllocation;
+import org.apache.arrow.memory.util.MemoryUtil;
+import org.apache.arrow.vector.VectorLoader;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.VectorUnloader;
+import org.apache.arrow.vector.ipc.ArrowFileReader;
+import org.apache.arrow.vector.ipc.ArrowFileWriter;
+import org.apache.arrow.vector.ipc.ReadChannel;
+import org.apache.arrow.vector.ipc.message.ArrowBlock;
+import org.apache.arrow.vector.ipc.message.ArrowRecordBatch;
+import org.apache.arrow.vector.ipc.message.MessageMetadataResult;
+import org.apache.arrow.vector.ipc.message.MessageSerializer;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+// Reduced relations and query answers in the Arrow IPC file format (Feather v2): the buffers are
+// written as they are in memory, with the full schema, so any Arrow reader can memory-map the files
+// and use the columns without parsing them. One file holds one relation, one record batch per batch.
+// map(...) is that reader on our side: the vectors it returns point straight into the mapped file.
+final class ArrowIpc {
+    static final String EXTENSION = ".arrow";
+
+    private ArrowIpc() {
+    }
+
+    // Writes the batches of one relation; they must all share the given schema
+    static void write(Path file, Schema schema, List<VectorSchemaRoot> batches, BufferAllocator allocator) throws IOException {
+        try (FileChannel channel = openForWrite(file);
+             VectorSchemaRoot staging = VectorSchemaRoot.create(schema, allocator);
+             ArrowFileWriter writer = new ArrowFileWriter(staging, null, channel)) {
+            writer.start();
+            VectorLoader loader = new VectorLoader(staging);
+            for (VectorSchemaRoot batch : batches) {
+                // The writer serializes its own root: load every batch into it, without copying the buffers
+                try (ArrowRecordBatch recordBatch = new VectorUnloader(batch).getRecordBatch()) {
+                    loader.load(recordBatch);
+                }
+                writer.writeBatch();
+            }
+            writer.end();
+        }
+    }
+
+    // Drains an enumerator into a file, one record batch per output batch; returns the number of answers
+    static long write(Path file, JoinEnumerator enumerator) throws IOException {
+        long rows = 0;
+        try (ArrowFileWriter writer = openWriter(file, enumerator.getVectorSchemaRoot())) {
+            while (enumerator.loadNextBatch()) {
+                writer.writeBatch();
+                rows += enumerator.getVectorSchemaRoot().getRowCount();
+            }
+            writer.end();
+        }
+        return rows;
+    }
+
+    // Started writer serializing the given root at every writeBatch(); closing it closes the file
+    static ArrowFileWriter openWriter(Path file, VectorSchemaRoot root) throws IOException {
+        FileChannel channel = openForWrite(file);
+        try {
+            ArrowFileWriter writer = new ArrowFileWriter(root, null, channel);
+            writer.start();
+            return writer;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // One <alias>.arrow file per join tree node, in the given directory
+    static void writeAll(Path directory, Main.ReducedDatabase database, BufferAllocator allocator) throws IOException {
+        Files.createDirectories(directory);
+        for (JoinTreeNode node : database.nodes()) {
+            List<VectorSchemaRoot> batches = database.get(node);
+            if (batches.isEmpty()) {
+                continue;
+            }
+            // Encoded join keys are written back as their strings
+            Path file = directory.resolve(node.alias + EXTENSION);
+            KeyDictionary.withDecoded(batches, database.dictionaries(), allocator,
+                    decoded -> write(file, decoded.get(0).getSchema(), decoded, allocator));
+        }
+    }
+
+    // Reads every record batch of a file into roots owned by the caller
+    static List<VectorSchemaRoot> read(Path file, BufferAllocator allocator) throws IOException {
+        List<VectorSchemaRoot> batches = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             ArrowFileReader reader = new ArrowFileReader(channel, allocator)) {
+            VectorSchemaRoot read = reader.getVectorSchemaRoot();
+            for (ArrowBlock block : reader.getRecordBlocks()) {
+                reader.loadRecordBatch(block);
+                VectorSchemaRoot owned = VectorSchemaRoot.create(read.getSchema(), allocator);
+                try (ArrowRecordBatch recordBatch = new VectorUnloader(read).getRecordBatch()) {
+                    new VectorLoader(owned).load(recordBatch);
+                }
+                batches.add(owned);
+            }
+        } catch (IOException | RuntimeException e) {
+            batches.forEach(VectorSchemaRoot::close);
+            throw e;
+        }
+        return batches;
+    }
+
+    // Schema of a file, with its custom metadata, without reading any record batch
+    static Schema readSchema(Path file, BufferAllocator allocator) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             ArrowFileReader reader = new ArrowFileReader(channel, allocator)) {
+            return reader.getVectorSchemaRoot().getSchema();
+        }
+    }
+
+    // Memory-maps the body of every record batch and wraps it as an ArrowBuf, so the returned vectors
+    // read the file's pages directly: nothing is parsed or copied, pages are loaded when first touched.
+    // Only uncompressed files without dictionaries (what write(...) produces) can be mapped.
+    static List<VectorSchemaRoot> map(Path file, BufferAllocator allocator) throws IOException {
+        List<VectorSchemaRoot> batches = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             ArrowFileReader reader = new ArrowFileReader(channel, allocator)) {
+            Schema schema = reader.getVectorSchemaRoot().getSchema();
+            if (!reader.getDictionaryBlocks().isEmpty()) {
+                throw new IOException(file + " has dictionaries and cannot be memory-mapped");
+            }
+            for (ArrowBlock block : reader.getRecordBlocks()) {
+                channel.position(block.getOffset());
+                MessageMetadataResult message = MessageSerializer.readMessage(new ReadChannel(channel));
+                if (message == null || message.headerType() != MessageHeader.RecordBatch) {
+                    throw new IOException("Expected a record batch at offset " + block.getOffset() + " of " + file);
+                }
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+                        block.getOffset() + block.getMetadataLength(), block.getBodyLength());
+                VectorSchemaRoot root = VectorSchemaRoot.create(schema, allocator);
+                batches.add(root);
+                ArrowBuf body = allocator.wrapForeignAllocation(new MappedAllocation(mapped));
+                // Takes over the reference to body; the vectors keep their own references to its slices
+                try (ArrowRecordBatch recordBatch = MessageSerializer.deserializeRecordBatch(message, body)) {
+                    new VectorLoader(root).load(recordBatch);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            batches.forEach(VectorSchemaRoot::close);
+            throw e;
+        }
+        return batches;
+    }
+
+    // A mapped region seen as Arrow memory; the mapping itself goes away with the last reference to it
+    private static final class MappedAllocation extends ForeignAllocation {
+        private MappedByteBuffer mapped;
+
+        MappedAllocation(MappedByteBuffer mapped) {
+            super(mapped.capacity(), MemoryUtil.getByteBufferAddress(mapped));
+            this.mapped = mapped;
+        }
+
+        @Override
+        protected void release0() {
+            mapped = null;
+        }
+    }
+
+    private static FileChannel openForWrite(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+}
@@ -0,0 +1,349 @@
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.arrow.memory.ArrowBuf;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.util.ByteFunctionHelpers;
+import org.apache.arrow.vector.BaseFixedWidthVector;
+import org.apache.arrow.vector.BaseVariableWidthVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float4Vector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.ValueVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.types.DateUnit;
+import org.apache.arrow.vector.types.TimeUnit;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.util.TransferPair;
+
+// Scan of one body atom over the batches of a relation. Terms map to the relation's columns by
+// position. Constant terms become equality predicates evaluated column at a time right after the
+// batches are loaded (a variable repeated in the atom becomes an equality between its columns), so
+// relations are shrunk before any semi-join sees them. The surviving rows are exposed with one
+// column per variable, named after the variable, which is what every later stage joins on.
+final class AtomScan {
+    private AtomScan() {
+    }
+
+    // Columns of the relation the scan of this atom has to read: those holding a constant or a
+    // repeated variable, and those bound to a required (join or answer) variable
+    static List<String> requiredColumns(Atom atom, List<String> columnNames, Set<String> requiredVariables) {
+        checkArity(atom, columnNames);
+        List<Term> terms = atom.getTerms();
+        Map<String, Integer> firstPosition = new HashMap<>();
+        Set<String> columns = new LinkedHashSet<>();
+        for (int position = 0; position < terms.size(); position++) {
+            Term term = terms.get(position);
+            if (!term.isVariable()) {
+                columns.add(columnNames.get(position));
+                continue;
+            }
+            Integer first = firstPosition.putIfAbsent(term.getValue(), position);
+            if (first != null) {
+                // a repeated variable is checked against its first occurrence
+                columns.add(columnNames.get(first));
+                columns.add(columnNames.get(position));
+            } else if (requiredVariables.contains(term.getValue())) {
+                columns.add(columnNames.get(position));
+            }
+        }
+        if (columns.isEmpty() && !columnNames.isEmpty()) {
+            // keep one column so the scan still knows how many tuples the relation has
+            columns.add(columnNames.get(0));
+        }
+        return new ArrayList<>(columns);
+    }
+
+    // Returns new batches owned by the caller, with one column per required variable; the input
+    // batches are left untouched. columnNames lists every column of the relation in file order,
+    // the batches only need to hold the requiredColumns(...) of the atom.
+    static List<VectorSchemaRoot> scan(Atom atom, List<String> columnNames, List<VectorSchemaRoot> relation,
+                                       Set<String> requiredVariables, BufferAllocator allocator) {
+        return scan(atom, columnNames, relation, requiredVariables, allocator, null);
+    }
+
+    // Late materialization: when selection is given (one slot per input batch), no row is copied. Every
+    // returned batch shares the buffers of its input batch, and selection[b] receives the rows of batch b
+    // that satisfy the atom, or null when they all do.
+    static List<VectorSchemaRoot> scan(Atom atom, List<String> columnNames, List<VectorSchemaRoot> relation,
+                                       Set<String> requiredVariables, BufferAllocator allocator, int[][] selection) {
+        checkArity(atom, columnNames);
+        List<VectorSchemaRoot> result = new ArrayList<>();
+        for (int b = 0; b < relation.size(); b++) {
+            result.add(scanBatch(atom, columnNames, relation.get(b), requiredVariables, allocator, selection, b));
+        }
+        return result;
+    }
+
+    private static void checkArity(Atom atom, List<String> columnNames) {
+        if (atom.getTerms().size() > columnNames.size()) {
+            throw new IllegalArgumentException(atom + " has " + atom.getTerms().size() + " terms but the relation only has "
+                    + columnNames.size() + " columns: " + columnNames);
+        }
+    }
+
+    private static VectorSchemaRoot scanBatch(Atom atom, List<String> columnNames, VectorSchemaRoot batch,
+                                              Set<String> requiredVariables, BufferAllocator allocator,
+                                              int[][] selection, int batchIndex) {
+        List<Term> terms = atom.getTerms();
+
+        int[] rows = new int[batch.getRowCount()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i;
+        }
+        int count = rows.length;
+
+        // First column of every variable, and the predicates implied by the atom
+        Map<String, FieldVector> variableColumns = new LinkedHashMap<>();
+        for (int position = 0; position < terms.size(); position++) {
+            Term term = terms.get(position);
+            FieldVector column = batch.getVector(columnNames.get(position));
+            if (!term.isVariable()) {
+                count = filterEquals(column, term.getValue(), rows, count);
+            } else if (variableColumns.containsKey(term.getValue())) {
+                count = filterSameValue(variableColumns.get(term.getValue()), column, rows, count);
+            } else if (column != null) {
+                variableColumns.put(term.getValue(), column);
+            }
+        }
+        variableColumns.keySet().retainAll(requiredVariables);
+
+        boolean shareBuffers = count == batch.getRowCount() || selection != null;
+        if (selection != null) {
+            selection[batchIndex] = count == batch.getRowCount() ? null : Arrays.copyOf(rows, count);
+        }
+        List<FieldVector> vectors = new ArrayList<>();
+        for (Map.Entry<String, FieldVector> entry : variableColumns.entrySet()) {
+            FieldVector source = entry.getValue();
+            if (shareBuffers) {
+                // Nothing filtered out, or the rows are tracked by the selection: share the buffers. They
+                // stay accounted to the source's allocator, the given one only pays for what is copied.
+                TransferPair transferPair = source.getTransferPair(entry.getKey(), source.getAllocator());
+                transferPair.splitAndTransfer(0, batch.getRowCount());
+                vectors.add((FieldVector) transferPair.getTo());
+            } else {
+                Field renamed = new Field(entry.getKey(), source.getField().getFieldType(), source.getField().getChildren());
+                FieldVector target = renamed.createVector(allocator);
+                target.allocateNewSafe();
+                for (int i = 0; i < count; i++) {
+                    target.copyFromSafe(rows[i], i, source);
+                }
+                target.setValueCount(count);
+                vectors.add(target);
+            }
+        }
+        VectorSchemaRoot result = new VectorSchemaRoot(vectors);
+        result.setRowCount(shareBuffers ? batch.getRowCount() : count);
+        return result;
+    }
+
+    // Keeps, among the first count entries of rows, those whose value equals the constant; returns how many are left.
+    // The constant is parsed once into the column's type and compared with the values in place: integer,
+    // date, time and timestamp columns compare the raw value of the buffer, strings their UTF-8 bytes.
+    static int filterEquals(ValueVector column, String constant, int[] rows, int count) {
+        int kept = 0;
+        try {
+            if (column instanceof BaseVariableWidthVector) {
+                BaseVariableWidthVector strings = (BaseVariableWidthVector) column;
+                byte[] value = constant.getBytes(StandardCharsets.UTF_8);
+                for (int i = 0; i < count; i++) {
+                    int row = rows[i];
+                    if (!strings.isNull(row) && ByteFunctionHelpers.compare(strings.getDataBuffer(),
+                            strings.getStartOffset(row), strings.getStartOffset(row + 1), value, 0, value.length) == 0) {
+                        rows[kept++] = row;
+                    }
+                }
+            } else if (column instanceof Float8Vector) {
+                Float8Vector doubles = (Float8Vector) column;
+                double value = Double.parseDouble(constant.trim());
+                for (int i = 0; i < count; i++) {
+                    int row = rows[i];
+                    if (!doubles.isNull(row) && doubles.get(row) == value) {
+                        rows[kept++] = row;
+                    }
+                }
+            } else if (column instanceof Float4Vector) {
+                Float4Vector floats = (Float4Vector) column;
+                float value = Float.parseFloat(constant.trim());
+                for (int i = 0; i < count; i++) {
+                    int row = rows[i];
+                    if (!floats.isNull(row) && floats.get(row) == value) {
+                        rows[kept++] = row;
+                    }
+                }
+            } else if (column instanceof BitVector) {
+                BitVector bits = (BitVector) column;
+                int value = Boolean.parseBoolean(constant.trim()) ? 1 : 0;
+                for (int i = 0; i < count; i++) {
+                    int row = rows[i];
+                    if (!bits.isNull(row) && bits.get(row) == value) {
+                        rows[kept++] = row;
+                    }
+                }
+            } else if (column instanceof BaseFixedWidthVector && hasRawValues(column.getField().getType())) {
+                kept = filterRawEquals((BaseFixedWidthVector) column, rawValue(column.getField().getType(), constant.trim()),
+                        rows, count);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    int row = rows[i];
+                    if (!column.isNull(row) && constant.equals(String.valueOf(column.getObject(row)))) {
+                        rows[kept++] = row;
+                    }
+                }
+            }
+        } catch (NumberFormatException | DateTimeException | ArithmeticException e) {
+            // A constant that is not even of the column's type (or out of its range) matches nothing
+            return 0;
+        }
+        return kept;
+    }
+
+    // Integers, dates, times and timestamps: fixed-width values that equal a constant exactly when their bytes do
+    private static boolean hasRawValues(ArrowType type) {
+        switch (type.getTypeID()) {
+            case Int:
+            case Date:
+            case Time:
+            case Timestamp:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Rows whose value, read from the data buffer at the column's width, is the given raw value
+    private static int filterRawEquals(BaseFixedWidthVector column, long value, int[] rows, int count) {
+        ArrowBuf data = column.getDataBuffer();
+        int width = column.getTypeWidth();
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            int row = rows[i];
+            if (column.isNull(row)) {
+                continue;
+            }
+            long stored;
+            switch (width) {
+                case 8:
+                    stored = data.getLong((long) row * 8);
+                    break;
+                case 4:
+                    stored = data.getInt((long) row * 4);
+                    break;
+                case 2:
+                    stored = data.getShort((long) row * 2);
+                    break;
+                default:
+                    stored = data.getByte(row);
+            }
+            if (stored == value) {
+                rows[kept++] = row;
+            }
+        }
+        return kept;
+    }
+
+    // The constant as the column stores it, sign-extended from the column's width. Dates and timestamps
+    // are read as the CSV writes them ("2010-07-22", "2010-07-22 20:00:20") or in ISO form; a timestamp
+    // without an offset is in the column's time zone, UTC when it has none. Throws when the constant has
+    // no exact value of that type.
+    private static long rawValue(ArrowType type, String constant) {
+        switch (type.getTypeID()) {
+            case Int: {
+                ArrowType.Int integer = (ArrowType.Int) type;
+                int bits = integer.getBitWidth();
+                long value = integer.getIsSigned() || bits < 64 ? Long.parseLong(constant) : Long.parseUnsignedLong(constant);
+                if (bits < 64) {
+                    long min = integer.getIsSigned() ? -(1L << (bits - 1)) : 0;
+                    long max = integer.getIsSigned() ? (1L << (bits - 1)) - 1 : (1L << bits) - 1;
+                    if (value < min || value > max) {
+                        throw new ArithmeticException(constant + " is out of range for " + type);
+                    }
+                    // Unsigned values are stored with their top bit as a sign bit
+                    value = (value << (64 - bits)) >> (64 - bits);
+                }
+                return value;
+            }
+            case Date: {
+                if (((ArrowType.Date) type).getUnit() == DateUnit.DAY) {
+                    return LocalDate.parse(constant).toEpochDay();
+                }
+                LocalDateTime dateTime = constant.length() <= 10
+                        ? LocalDate.parse(constant).atStartOfDay() : LocalDateTime.parse(constant.replace(' ', 'T'));
+                return inUnit(dateTime.toInstant(ZoneOffset.UTC), TimeUnit.MILLISECOND);
+            }
+            case Time: {
+                long nanos = LocalTime.parse(constant).toNanoOfDay();
+                return inUnit(Instant.ofEpochSecond(0, nanos), ((ArrowType.Time) type).getUnit());
+            }
+            case Timestamp: {
+                ArrowType.Timestamp timestamp = (ArrowType.Timestamp) type;
+                String text = constant.replace(' ', 'T');
+                ZoneId zone = timestamp.getTimezone() == null ? ZoneOffset.UTC : ZoneId.of(timestamp.getTimezone());
+                Instant instant = hasOffset(text)
+                        ? OffsetDateTime.parse(text).toInstant() : LocalDateTime.parse(text).atZone(zone).toInstant();
+                return inUnit(instant, timestamp.getUnit());
+            }
+            default:
+                throw new IllegalArgumentException("No raw values for " + type);
+        }
+    }
+
+    // "Z" or "+hh:mm" / "-hh:mm" after the time of day
+    private static boolean hasOffset(String text) {
+        int time = text.indexOf('T');
+        return time >= 0 && (text.endsWith("Z") || text.indexOf('+', time) >= 0 || text.indexOf('-', time) >= 0);
+    }
+
+    // Whole units since the epoch; throws when the instant has a finer part than the unit can hold
+    private static long inUnit(Instant instant, TimeUnit unit) {
+        long seconds = instant.getEpochSecond();
+        int nanos = instant.getNano();
+        switch (unit) {
+            case SECOND:
+                if (nanos != 0) {
+                    throw new ArithmeticException(instant + " is not a whole number of seconds");
+                }
+                return seconds;
+            case MILLISECOND:
+                if (nanos % 1_000_000 != 0) {
+                    throw new ArithmeticException(instant + " is not a whole number of milliseconds");
+                }
+                return Math.addExact(Math.multiplyExact(seconds, 1_000L), nanos / 1_000_000);
+            case MICROSECOND:
+                if (nanos % 1_000 != 0) {
+                    throw new ArithmeticException(instant + " is not a whole number of microseconds");
+                }
+                return Math.addExact(Math.multiplyExact(seconds, 1_000_000L), nanos / 1_000);
+            default:
+                return Math.addExact(Math.multiplyExact(seconds, 1_000_000_000L), nanos);
+        }
+    }
+
+    private static int filterSameValue(ValueVector first, ValueVector second, int[] rows, int count) {
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            int row = rows[i];
+            if (CompositeKey.valueEquals(first, row, second, row)) {
+                rows[kept++] = row;
+            }
+        }
+        return kept;
+    }
+}
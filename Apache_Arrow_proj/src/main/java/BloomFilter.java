@@ -0,0 +1,213 @@
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.arrow.memory.ArrowBuf;
+import org.apache.arrow.vector.BaseFixedWidthVector;
+import org.apache.arrow.vector.BaseLargeVariableWidthVector;
+import org.apache.arrow.vector.BaseVariableWidthVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.ValueVector;
+
+// Bloom filter over join keys, used for sideways information passing: the live keys of the smaller
+// side of a semi-join are summarized in a few bits per key, and every probing row is checked against
+// those bits first. Rows whose key is certainly absent are dropped there, before the key's table hash
+// is computed or the exact key set is looked up; the rows that pass still go through the exact check,
+// so false positives cost time, never correctness.
+//
+// Keys are hashed by hash(columns, row), which reads the raw values from the vectors' buffers and has
+// nothing in common with CompositeKey.hash: a dropped row costs this one cheap hash and nothing else.
+// Bits are picked by double hashing (Kirsch & Mitzenmacher) from the two halves of that 64-bit hash.
+// Counters are kept per filter and per query (Metrics), so the observed false-positive rate can be
+// compared with the configured one.
+final class BloomFilter {
+    private static final double LN2 = Math.log(2);
+    private static final int MAX_HASHES = 16;
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+    private static final long MULTIPLIER = 0xff51afd7ed558ccdL;
+
+    private final long[] words;
+    private final long bitCount;
+    private final int hashCount;
+    private final Metrics metrics;
+
+    // rows probed, rows let through, rows that then really matched
+    private final LongAdder tested = new LongAdder();
+    private final LongAdder passed = new LongAdder();
+    private final LongAdder matched = new LongAdder();
+
+    private BloomFilter(long bitCount, int hashCount, Metrics metrics) {
+        this.words = new long[(int) ((bitCount + 63) / 64)];
+        this.bitCount = (long) words.length * 64;
+        this.hashCount = hashCount;
+        this.metrics = metrics;
+    }
+
+    // Filter sized for the given number of keys at the requested false-positive rate, but never larger
+    // than maxBytes (the rate then ends up above the target); counted in metrics unless it is null
+    static BloomFilter create(long expectedKeys, double falsePositiveRate, long maxBytes, Metrics metrics) {
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("False-positive rate must be in (0, 1): " + falsePositiveRate);
+        }
+        long keys = Math.max(1, expectedKeys);
+        long bits = (long) Math.ceil(-keys * Math.log(falsePositiveRate) / (LN2 * LN2));
+        bits = Math.max(64, Math.min(bits, Math.max(64, maxBytes * 8)));
+        bits = Math.min(bits, (long) Integer.MAX_VALUE * 64);
+        int hashes = (int) Math.max(1, Math.min(MAX_HASHES, Math.round((double) bits / keys * LN2)));
+        BloomFilter filter = new BloomFilter(bits, hashes, metrics);
+        if (metrics != null) {
+            metrics.filters.increment();
+            metrics.bytes.add(filter.words.length * 8L);
+        }
+        return filter;
+    }
+
+    // Hash of the key of one row. Keys that CompositeKey considers equal hash the same: fixed-width values
+    // by their bytes, strings by theirs; other layouts fall back to the vector's own hash.
+    static long hash(ValueVector[] columns, int row) {
+        long h = SEED;
+        for (ValueVector column : columns) {
+            h = mix(h ^ valueBits(column, row));
+        }
+        return h;
+    }
+
+    void add(long keyHash) {
+        long h1 = keyHash & 0xFFFFFFFFL;
+        long h2 = (keyHash >>> 32) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = (h1 + i * h2) % bitCount;
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    boolean mightContain(long keyHash) {
+        long h1 = keyHash & 0xFFFFFFFFL;
+        long h2 = (keyHash >>> 32) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = (h1 + i * h2) % bitCount;
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Outcome of one probe over a range of rows; safe to call from several workers
+    void record(long testedRows, long passedRows, long matchedRows) {
+        tested.add(testedRows);
+        passed.add(passedRows);
+        matched.add(matchedRows);
+        if (metrics != null) {
+            metrics.tested.add(testedRows);
+            metrics.passed.add(passedRows);
+            metrics.matched.add(matchedRows);
+        }
+    }
+
+    // Share of the rows without a match that the filter let through
+    double observedFalsePositiveRate() {
+        return falsePositiveRate(tested.sum(), passed.sum(), matched.sum());
+    }
+
+    long sizeInBytes() {
+        return words.length * 8L;
+    }
+
+    int getHashCount() {
+        return hashCount;
+    }
+
+    private static double falsePositiveRate(long tested, long passed, long matched) {
+        long negatives = tested - matched;
+        return negatives == 0 ? 0 : (double) (passed - matched) / negatives;
+    }
+
+    private static long valueBits(ValueVector column, int row) {
+        if (column instanceof BaseVariableWidthVector) {
+            BaseVariableWidthVector strings = (BaseVariableWidthVector) column;
+            return bytesHash(strings.getDataBuffer(), strings.getStartOffset(row), strings.getStartOffset(row + 1));
+        }
+        if (column instanceof BaseLargeVariableWidthVector) {
+            ArrowBuf offsets = column.getOffsetBuffer();
+            return bytesHash(column.getDataBuffer(),
+                    offsets.getLong((long) row * BaseLargeVariableWidthVector.OFFSET_WIDTH),
+                    offsets.getLong((long) (row + 1) * BaseLargeVariableWidthVector.OFFSET_WIDTH));
+        }
+        if (column instanceof BitVector) {
+            return ((BitVector) column).get(row);
+        }
+        if (column instanceof BaseFixedWidthVector) {
+            int width = ((BaseFixedWidthVector) column).getTypeWidth();
+            ArrowBuf data = column.getDataBuffer();
+            long start = (long) row * width;
+            switch (width) {
+                case 8:
+                    return data.getLong(start);
+                case 4:
+                    return data.getInt(start);
+                case 2:
+                    return data.getShort(start);
+                case 1:
+                    return data.getByte(start);
+                default:
+                    return bytesHash(data, start, start + width);
+            }
+        }
+        return column.hashCode(row);
+    }
+
+    // Bytes [start, end) of a buffer, eight at a time
+    private static long bytesHash(ArrowBuf data, long start, long end) {
+        long h = end - start;
+        long i = start;
+        for (; i + 8 <= end; i += 8) {
+            h = Long.rotateLeft((h ^ data.getLong(i)) * MULTIPLIER, 29);
+        }
+        for (; i < end; i++) {
+            h = (h ^ data.getByte(i)) * MULTIPLIER;
+        }
+        return h;
+    }
+
+    // fmix64 finalizer of MurmurHash3
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= MULTIPLIER;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // Totals over every filter built for one query (kept by its ReducedDatabase)
+    static final class Metrics {
+        private final LongAdder filters = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder tested = new LongAdder();
+        private final LongAdder passed = new LongAdder();
+        private final LongAdder matched = new LongAdder();
+
+        long getFilters() {
+            return filters.sum();
+        }
+
+        long getTested() {
+            return tested.sum();
+        }
+
+        long getPassed() {
+            return passed.sum();
+        }
+
+        double observedFalsePositiveRate() {
+            return falsePositiveRate(tested.sum(), passed.sum(), matched.sum());
+        }
+
+        @Override
+        public String toString() {
+            long t = tested.sum();
+            long p = passed.sum();
+            return String.format("Bloom filters: %d built (%d bytes), %d rows probed, %d dropped, %d passed, %d matched, false-positive rate %.4f",
+                    filters.sum(), bytes.sum(), t, t - p, p, matched.sum(), observedFalsePositiveRate());
+        }
+    }
+}
@@ -0,0 +1,396 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.arrow.dataset.file.FileFormat;
+import org.apache.arrow.dataset.file.FileSystemDatasetFactory;
+import org.apache.arrow.dataset.jni.NativeMemoryPool;
+import org.apache.arrow.dataset.scanner.ScanOptions;
+import org.apache.arrow.dataset.scanner.Scanner;
+import org.apache.arrow.dataset.source.Dataset;
+import org.apache.arrow.dataset.source.DatasetFactory;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowReader;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+// In-memory catalog of named relations (beers, breweries, styles, categories, locations, ...).
+// Each CSV is scanned at most once per process: the scanned batches are moved into roots owned
+// by the catalog, and every later lookup reads them from memory. Lookups may ask for a subset of
+// the columns, in which case only those are parsed; a relation is scanned again only when a later
+// lookup needs a column that was not loaded yet.
+//
+// With the cache on, every column parsed from a CSV is also saved as an Arrow IPC file of its own,
+// <cacheDirectory>/<relation>/<column position>.arrow. One manifest per relation, <relation>.arrow in
+// the same directory, holds the full schema and no rows; its schema metadata records the path, size
+// and modification time of the CSV and which columns have a file. A lookup reads the manifest once:
+// when it is fresh and lists every column asked for, just those column files are memory-mapped and
+// read in place; otherwise the columns asked for are parsed, and the ones that were missing are cached.
+// Column files are written in batches of exactly BATCH_SIZE rows, whichever scan produced them, so the
+// batches of any two of them line up.
+class Catalog implements AutoCloseable {
+    static final String DATA_DIR = "src/main/resources/data/";
+    static final int BATCH_SIZE = 32768;
+
+    private static final String SOURCE_PATH = "source.path";
+    private static final String SOURCE_SIZE = "source.size";
+    private static final String SOURCE_MTIME = "source.mtime";
+    private static final String CACHED_COLUMNS = "cached.columns";
+
+    // Keep an Arrow IPC copy of every CSV column and map it on later runs (--no-cache turns it off)
+    static boolean useCache = true;
+
+    // Where the cached copies go (--cache-dir)
+    static Path cacheDirectory = Path.of(System.getProperty("java.io.tmpdir"), "arrow-cache");
+
+    private final BufferAllocator allocator;
+    private final Map<String, Relation> relations = new HashMap<>();
+
+    private static class Relation {
+        final Schema schema;              // every column of the relation, in file order
+        final Set<String> loadedColumns;  // null when every column is loaded
+        final Table table;
+        final List<VectorSchemaRoot> batches;
+
+        Relation(Schema schema, Set<String> loadedColumns, Table table) {
+            this.schema = schema;
+            this.loadedColumns = loadedColumns;
+            this.table = table;
+            this.batches = table.getBatches();
+        }
+
+        boolean covers(Collection<String> columns) {
+            return loadedColumns == null || loadedColumns.containsAll(columns);
+        }
+    }
+
+    Catalog(BufferAllocator allocator) {
+        this.allocator = allocator;
+    }
+
+    public BufferAllocator getAllocator() {
+        return allocator;
+    }
+
+    // Returns the batches of a relation with all its columns, scanning <name>.csv the first time it is asked for
+    public List<VectorSchemaRoot> get(String name) {
+        return get(name, null);
+    }
+
+    // The same relation as a Table, still owned by the catalog (valid until the relation is reloaded or
+    // the catalog closed)
+    public Table getTable(String name) {
+        get(name);
+        return relations.get(name.toLowerCase()).table;
+    }
+
+    // Returns batches holding at least the given columns (every column when columns is null)
+    public List<VectorSchemaRoot> get(String name, Collection<String> columns) {
+        String key = name.toLowerCase();
+        Relation relation = relations.get(key);
+        if (relation != null && (columns == null ? relation.loadedColumns == null : relation.covers(columns))) {
+            return relation.batches;
+        }
+        Set<String> toLoad = null;
+        if (columns != null) {
+            toLoad = new LinkedHashSet<>(columns);
+            if (relation != null) {
+                toLoad.addAll(relation.loadedColumns);
+            }
+        }
+        Relation loaded = load(key, toLoad);
+        if (relation != null) {
+            relation.table.close();
+        }
+        relations.put(key, loaded);
+        return loaded.batches;
+    }
+
+    // Column names of a relation in file order; only reads the CSV header when nothing is loaded yet
+    public List<String> getColumnNames(String name) {
+        String key = name.toLowerCase();
+        Relation relation = relations.get(key);
+        Schema schema = relation != null ? relation.schema : null;
+        if (schema == null && useCache) {
+            Schema manifest = readManifest(key);
+            schema = manifest != null ? new Schema(manifest.getFields()) : null;
+        }
+        if (schema == null) {
+            schema = inspectCsv(key + ".csv");
+        }
+        List<String> names = new ArrayList<>();
+        for (Field field : schema.getFields()) {
+            names.add(field.getName());
+        }
+        return names;
+    }
+
+    public boolean contains(String name) {
+        return relations.containsKey(name.toLowerCase());
+    }
+
+    // Registers (or replaces) a relation; the catalog takes ownership of the batches
+    public void put(String name, List<VectorSchemaRoot> batches) {
+        Schema schema = batches.isEmpty() ? new Schema(List.of()) : batches.get(0).getSchema();
+        Relation previous = relations.put(name.toLowerCase(), new Relation(schema, null, Table.of(schema, batches)));
+        if (previous != null) {
+            previous.table.close();
+        }
+    }
+
+    public void load(String... names) {
+        for (String name : names) {
+            get(name);
+        }
+    }
+
+    private Relation load(String key, Set<String> columns) {
+        if (!useCache) {
+            return scanCsv(key + ".csv", columns);
+        }
+        Schema manifest = readManifest(key);
+        Schema schema = manifest != null ? new Schema(manifest.getFields()) : inspectCsv(key + ".csv");
+        Set<Integer> cached = new TreeSet<>();
+        if (manifest != null) {
+            for (String position : manifest.getCustomMetadata().get(CACHED_COLUMNS).split(",")) {
+                if (!position.isEmpty()) {
+                    cached.add(Integer.valueOf(position));
+                }
+            }
+        }
+        List<Integer> wanted = new ArrayList<>();
+        for (int i = 0; i < schema.getFields().size(); i++) {
+            if (columns == null || columns.contains(schema.getFields().get(i).getName())) {
+                wanted.add(i);
+            }
+        }
+        // With no column at all, only a scan knows the number of rows
+        if (!wanted.isEmpty() && cached.containsAll(wanted)) {
+            try {
+                return new Relation(schema, columns, mapColumns(key, schema, wanted));
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Ignoring the cached columns of " + key + ": " + e.getMessage());
+                cached.removeAll(wanted);
+            }
+        }
+        Relation scanned = scanCsv(key + ".csv", columns);
+        writeCache(key, schema, scanned, wanted, cached);
+        return scanned;
+    }
+
+    private static Path sourceFile(String key) {
+        return Path.of(DATA_DIR, key + ".csv");
+    }
+
+    private static Path manifestFile(String key) {
+        return cacheDirectory.resolve(key + ArrowIpc.EXTENSION);
+    }
+
+    // Named after the column's position, column names are not always valid file names
+    private static Path columnFile(String key, int position) {
+        return cacheDirectory.resolve(key).resolve(position + ArrowIpc.EXTENSION);
+    }
+
+    // The manifest of a relation, or null when there is none or it was written from another version
+    // of the CSV (a different path, size or modification time); its column files are then ignored too
+    private Schema readManifest(String key) {
+        Path manifest = manifestFile(key);
+        Path source = sourceFile(key);
+        if (!Files.isRegularFile(manifest) || !Files.isRegularFile(source)) {
+            return null;
+        }
+        try {
+            Schema schema = ArrowIpc.readSchema(manifest, allocator);
+            Map<String, String> metadata = schema.getCustomMetadata();
+            boolean fresh = source.toAbsolutePath().toString().equals(metadata.get(SOURCE_PATH))
+                    && String.valueOf(Files.size(source)).equals(metadata.get(SOURCE_SIZE))
+                    && String.valueOf(Files.getLastModifiedTime(source).toMillis()).equals(metadata.get(SOURCE_MTIME))
+                    && metadata.containsKey(CACHED_COLUMNS);
+            return fresh ? schema : null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // Maps the file of every column and puts batch b of each of them side by side in root b of the table
+    private Table mapColumns(String key, Schema schema, List<Integer> positions) throws IOException {
+        List<List<VectorSchemaRoot>> mapped = new ArrayList<>();
+        try {
+            for (int position : positions) {
+                mapped.add(ArrowIpc.map(columnFile(key, position), allocator));
+            }
+            List<VectorSchemaRoot> batches = new ArrayList<>();
+            int batchCount = mapped.get(0).size();
+            for (int b = 0; b < batchCount; b++) {
+                List<FieldVector> vectors = new ArrayList<>();
+                for (int c = 0; c < mapped.size(); c++) {
+                    if (mapped.get(c).size() != batchCount
+                            || mapped.get(c).get(b).getRowCount() != mapped.get(0).get(b).getRowCount()) {
+                        throw new IOException("the batches of column " + positions.get(c) + " do not line up");
+                    }
+                    vectors.add(mapped.get(c).get(b).getVector(0));
+                }
+                batches.add(new VectorSchemaRoot(vectors));
+            }
+            // The vectors now belong to the zipped roots
+            mapped.clear();
+            List<Field> fields = new ArrayList<>();
+            for (int position : positions) {
+                fields.add(schema.getFields().get(position));
+            }
+            return Table.of(new Schema(fields), batches);
+        } finally {
+            for (List<VectorSchemaRoot> column : mapped) {
+                column.forEach(VectorSchemaRoot::close);
+            }
+        }
+    }
+
+    // Saves the scanned columns that had no file yet, then a manifest listing them with the ones that did
+    private void writeCache(String key, Schema schema, Relation scanned, List<Integer> positions, Set<Integer> cached) {
+        List<VectorSchemaRoot> batches = scanned.batches;
+        boolean rebatched = false;
+        try {
+            Path source = sourceFile(key);
+            Map<String, String> metadata = new HashMap<>();
+            metadata.put(SOURCE_PATH, source.toAbsolutePath().toString());
+            metadata.put(SOURCE_SIZE, String.valueOf(Files.size(source)));
+            metadata.put(SOURCE_MTIME, String.valueOf(Files.getLastModifiedTime(source).toMillis()));
+            for (int b = 0; b + 1 < batches.size(); b++) {
+                if (batches.get(b).getRowCount() != BATCH_SIZE) {
+                    batches = rebatch(scanned.batches);
+                    rebatched = true;
+                    break;
+                }
+            }
+            Set<Integer> written = new TreeSet<>(cached);
+            for (int position : positions) {
+                if (cached.contains(position)) {
+                    continue;
+                }
+                Field field = schema.getFields().get(position);
+                List<VectorSchemaRoot> views = new ArrayList<>();
+                for (VectorSchemaRoot batch : batches) {
+                    views.add(new VectorSchemaRoot(List.of(batch.getVector(field.getName()))));
+                }
+                writeAtomically(columnFile(key, position), new Schema(List.of(field)), views);
+                written.add(position);
+            }
+            StringBuilder list = new StringBuilder();
+            for (int position : written) {
+                list.append(list.length() == 0 ? "" : ",").append(position);
+            }
+            metadata.put(CACHED_COLUMNS, list.toString());
+            writeAtomically(manifestFile(key), new Schema(schema.getFields(), metadata), List.of());
+        } catch (IOException e) {
+            // Not fatal: the relation is loaded, it will just be parsed again next time
+            System.err.println("Could not cache " + key + ": " + e.getMessage());
+        } finally {
+            if (rebatched) {
+                batches.forEach(VectorSchemaRoot::close);
+            }
+        }
+    }
+
+    // Written next to the final file and moved over it, so a reader never sees half a cache file
+    private void writeAtomically(Path file, Schema schema, List<VectorSchemaRoot> batches) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temporary = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            ArrowIpc.write(temporary, schema, batches, allocator);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    // The rows of the batches, in order, in new batches of exactly BATCH_SIZE rows (the last one may hold
+    // fewer); copies value by value, which only happens on the cold load that writes the cache
+    private List<VectorSchemaRoot> rebatch(List<VectorSchemaRoot> batches) {
+        List<VectorSchemaRoot> rebatched = new ArrayList<>();
+        try {
+            VectorSchemaRoot target = null;
+            int targetRows = 0;
+            for (VectorSchemaRoot batch : batches) {
+                for (int row = 0; row < batch.getRowCount(); row++) {
+                    if (target == null || targetRows == BATCH_SIZE) {
+                        target = VectorSchemaRoot.create(batch.getSchema(), allocator);
+                        target.allocateNew();
+                        rebatched.add(target);
+                        targetRows = 0;
+                    }
+                    for (int c = 0; c < batch.getFieldVectors().size(); c++) {
+                        target.getVector(c).copyFromSafe(row, targetRows, batch.getVector(c));
+                    }
+                    targetRows++;
+                    if (targetRows == BATCH_SIZE) {
+                        target.setRowCount(targetRows);
+                    }
+                }
+            }
+            if (target != null) {
+                target.setRowCount(targetRows);
+            }
+        } catch (RuntimeException e) {
+            rebatched.forEach(VectorSchemaRoot::close);
+            throw e;
+        }
+        return rebatched;
+    }
+
+    private static String uriOf(String fileName) {
+        return Path.of(DATA_DIR, fileName).toAbsolutePath().toUri().toString();
+    }
+
+    private Schema inspectCsv(String fileName) {
+        String uri = uriOf(fileName);
+        try (DatasetFactory datasetFactory = new FileSystemDatasetFactory(
+                allocator, NativeMemoryPool.getDefault(), FileFormat.CSV, uri)) {
+            return datasetFactory.inspect();
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not read the header of " + uri, e);
+        }
+    }
+
+    private Relation scanCsv(String fileName, Set<String> columns) {
+        String uri = uriOf(fileName);
+        // Only the requested columns go through the scanner's projection
+        ScanOptions options = columns == null
+                ? new ScanOptions(BATCH_SIZE)
+                : new ScanOptions(BATCH_SIZE, Optional.of(columns.toArray(new String[0])));
+        try (
+                DatasetFactory datasetFactory = new FileSystemDatasetFactory(
+                        allocator, NativeMemoryPool.getDefault(),
+                        FileFormat.CSV, uri);
+                Dataset dataset = datasetFactory.finish();
+                Scanner scanner = dataset.newScan(options);
+                ArrowReader reader = scanner.scanBatches()
+        ) {
+            Schema schema = datasetFactory.inspect();
+            // The reader reuses its root for every batch: the table keeps each one in a root of its own
+            return new Relation(schema, columns, Table.read(reader, allocator));
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not load " + uri, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Relation relation : relations.values()) {
+            relation.table.close();
+        }
+        relations.clear();
+    }
+}
@@ -0,0 +1,94 @@
+import org.apache.arrow.memory.util.ByteFunctionHelpers;
+import org.apache.arrow.vector.BaseFixedWidthVector;
+import org.apache.arrow.vector.BaseVariableWidthVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.ValueVector;
+
+import java.util.Objects;
+
+// A join key spanning one or more columns, pointing at a single row of a batch.
+// The hash combines the per-column Arrow hashes (computed on the raw buffers),
+// and equality compares byte ranges, so building and probing never box values.
+final class CompositeKey {
+    private final ValueVector[] columns;
+    private final int row;
+    private final int hash;
+
+    CompositeKey(ValueVector[] columns, int row) {
+        this.columns = columns;
+        this.row = row;
+        this.hash = hash(columns, row);
+    }
+
+    static int hash(ValueVector[] columns, int row) {
+        int h = 1;
+        for (ValueVector column : columns) {
+            h = 31 * h + column.hashCode(row);
+        }
+        return h;
+    }
+
+    // Rows with a null in any key column never take part in a join
+    static boolean hasNull(ValueVector[] columns, int row) {
+        for (ValueVector column : columns) {
+            if (column.isNull(row)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean rowEquals(ValueVector[] left, int leftRow, ValueVector[] right, int rightRow) {
+        if (left.length != right.length) {
+            return false;
+        }
+        for (int c = 0; c < left.length; c++) {
+            if (!valueEquals(left[c], leftRow, right[c], rightRow)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Compare one cell of each vector without materializing Java objects when both sides share a layout
+    static boolean valueEquals(ValueVector left, int leftRow, ValueVector right, int rightRow) {
+        if (left.isNull(leftRow) || right.isNull(rightRow)) {
+            return false;
+        }
+        if (left.getMinorType() == right.getMinorType()) {
+            if (left instanceof BaseVariableWidthVector) {
+                BaseVariableWidthVector l = (BaseVariableWidthVector) left;
+                BaseVariableWidthVector r = (BaseVariableWidthVector) right;
+                return ByteFunctionHelpers.equal(
+                        l.getDataBuffer(), l.getStartOffset(leftRow), l.getStartOffset(leftRow + 1),
+                        r.getDataBuffer(), r.getStartOffset(rightRow), r.getStartOffset(rightRow + 1)) != 0;
+            }
+            if (left instanceof BaseFixedWidthVector && !(left instanceof BitVector)) {
+                int width = ((BaseFixedWidthVector) left).getTypeWidth();
+                long leftStart = (long) leftRow * width;
+                long rightStart = (long) rightRow * width;
+                return ByteFunctionHelpers.equal(
+                        left.getDataBuffer(), leftStart, leftStart + width,
+                        right.getDataBuffer(), rightStart, rightStart + width) != 0;
+            }
+        }
+        return Objects.equals(left.getObject(leftRow), right.getObject(rightRow));
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CompositeKey)) {
+            return false;
+        }
+        CompositeKey other = (CompositeKey) o;
+        return hash == other.hash && rowEquals(columns, row, other.columns, other.row);
+    }
+}
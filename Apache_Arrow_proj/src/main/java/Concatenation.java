@@ -0,0 +1,195 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.arrow.memory.ArrowBuf;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.vector.BaseFixedWidthVector;
+import org.apache.arrow.vector.BaseVariableWidthVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.types.pojo.Field;
+
+// Concatenation of record batches with the same schema into one contiguous batch. The size of every
+// output buffer is known before anything is copied (row counts, and for variable-width columns the
+// byte ranges of the offsets), so each vector is allocated exactly once and filled with bulk copies:
+// data buffers with one memcpy per batch, validity bitmaps bytewise (a plain memcpy when the batch
+// starts on a byte boundary), offsets rebased onto the output's data buffer.
+// Column types without a flat layout (bits, nested types, large offsets) fall back to copying row by row.
+final class Concatenation {
+    private Concatenation() {
+    }
+
+    // One new batch holding the rows of all the batches in order, allocated from the given allocator;
+    // the sources are left untouched. The schema comes from the batches, so there must be at least one.
+    static VectorSchemaRoot concatenate(List<VectorSchemaRoot> batches, BufferAllocator allocator) {
+        if (batches.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "Cannot concatenate an empty list of batches: there is no schema to build the result from");
+        }
+        int rowCount = 0;
+        for (VectorSchemaRoot batch : batches) {
+            rowCount = Math.addExact(rowCount, batch.getRowCount());
+        }
+        List<FieldVector> vectors = new ArrayList<>();
+        try {
+            for (Field field : batches.get(0).getSchema().getFields()) {
+                List<FieldVector> sources = new ArrayList<>();
+                for (VectorSchemaRoot batch : batches) {
+                    sources.add(batch.getVector(field.getName()));
+                }
+                FieldVector vector = field.createVector(allocator);
+                vectors.add(vector);
+                concatenate(sources, batches, rowCount, vector);
+            }
+        } catch (RuntimeException e) {
+            vectors.forEach(FieldVector::close);
+            throw e;
+        }
+        VectorSchemaRoot result = new VectorSchemaRoot(vectors);
+        result.setRowCount(rowCount);
+        return result;
+    }
+
+    // Merges runs of consecutive batches into batches of at most targetRows rows; a batch that is not
+    // merged with any other is kept as it is. Takes ownership of the batches: the merged ones are
+    // released, unless the concatenation fails, in which case they all still belong to the caller.
+    static List<VectorSchemaRoot> coalesce(List<VectorSchemaRoot> batches, int targetRows, BufferAllocator allocator) {
+        List<List<VectorSchemaRoot>> runs = new ArrayList<>();
+        List<VectorSchemaRoot> run = new ArrayList<>();
+        long runRows = 0;
+        for (VectorSchemaRoot batch : batches) {
+            if (!run.isEmpty() && runRows + batch.getRowCount() > targetRows) {
+                runs.add(run);
+                run = new ArrayList<>();
+                runRows = 0;
+            }
+            run.add(batch);
+            runRows += batch.getRowCount();
+        }
+        if (!run.isEmpty()) {
+            runs.add(run);
+        }
+        if (runs.size() == batches.size()) {
+            return batches;
+        }
+
+        List<VectorSchemaRoot> coalesced = new ArrayList<>();
+        List<VectorSchemaRoot> created = new ArrayList<>();
+        List<VectorSchemaRoot> merged = new ArrayList<>();
+        try {
+            for (List<VectorSchemaRoot> sources : runs) {
+                if (sources.size() == 1) {
+                    coalesced.add(sources.get(0));
+                } else {
+                    VectorSchemaRoot concatenated = concatenate(sources, allocator);
+                    created.add(concatenated);
+                    coalesced.add(concatenated);
+                    merged.addAll(sources);
+                }
+            }
+        } catch (RuntimeException e) {
+            created.forEach(VectorSchemaRoot::close);
+            throw e;
+        }
+        merged.forEach(VectorSchemaRoot::close);
+        return coalesced;
+    }
+
+    private static void concatenate(List<FieldVector> sources, List<VectorSchemaRoot> batches, int rowCount, FieldVector target) {
+        if (target instanceof BaseFixedWidthVector && !(target instanceof BitVector)) {
+            concatenateFixedWidth(sources, batches, rowCount, (BaseFixedWidthVector) target);
+        } else if (target instanceof BaseVariableWidthVector) {
+            concatenateVariableWidth(sources, batches, rowCount, (BaseVariableWidthVector) target);
+        } else {
+            target.setInitialCapacity(rowCount);
+            target.allocateNew();
+            int row = 0;
+            for (int b = 0; b < sources.size(); b++) {
+                for (int i = 0; i < batches.get(b).getRowCount(); i++) {
+                    target.copyFromSafe(i, row++, sources.get(b));
+                }
+            }
+            target.setValueCount(rowCount);
+        }
+    }
+
+    private static void concatenateFixedWidth(List<FieldVector> sources, List<VectorSchemaRoot> batches, int rowCount,
+                                              BaseFixedWidthVector target) {
+        int width = target.getTypeWidth();
+        target.allocateNew(rowCount);
+        int row = 0;
+        for (int b = 0; b < sources.size(); b++) {
+            int count = batches.get(b).getRowCount();
+            if (count == 0) {
+                continue;
+            }
+            BaseFixedWidthVector source = (BaseFixedWidthVector) sources.get(b);
+            copyValidity(source, count, target.getValidityBuffer(), row);
+            target.getDataBuffer().setBytes((long) row * width, source.getDataBuffer(), 0, (long) count * width);
+            row += count;
+        }
+        target.setValueCount(rowCount);
+    }
+
+    private static void concatenateVariableWidth(List<FieldVector> sources, List<VectorSchemaRoot> batches, int rowCount,
+                                                 BaseVariableWidthVector target) {
+        long totalBytes = 0;
+        for (int b = 0; b < sources.size(); b++) {
+            int count = batches.get(b).getRowCount();
+            if (count > 0) {
+                ArrowBuf offsets = sources.get(b).getOffsetBuffer();
+                totalBytes += offsets.getInt((long) count * BaseVariableWidthVector.OFFSET_WIDTH) - offsets.getInt(0);
+            }
+        }
+        target.allocateNew(Math.max(totalBytes, 1), rowCount);
+        ArrowBuf targetOffsets = target.getOffsetBuffer();
+        int row = 0;
+        int dataOffset = 0;
+        for (int b = 0; b < sources.size(); b++) {
+            int count = batches.get(b).getRowCount();
+            if (count == 0) {
+                continue;
+            }
+            BaseVariableWidthVector source = (BaseVariableWidthVector) sources.get(b);
+            ArrowBuf offsets = source.getOffsetBuffer();
+            int start = offsets.getInt(0);
+            int end = offsets.getInt((long) count * BaseVariableWidthVector.OFFSET_WIDTH);
+            copyValidity(source, count, target.getValidityBuffer(), row);
+            target.getDataBuffer().setBytes(dataOffset, source.getDataBuffer(), start, end - start);
+            for (int i = 0; i < count; i++) {
+                targetOffsets.setInt((long) (row + i) * BaseVariableWidthVector.OFFSET_WIDTH,
+                        offsets.getInt((long) i * BaseVariableWidthVector.OFFSET_WIDTH) - start + dataOffset);
+            }
+            row += count;
+            dataOffset += end - start;
+        }
+        targetOffsets.setInt((long) rowCount * BaseVariableWidthVector.OFFSET_WIDTH, dataOffset);
+        target.setLastSet(rowCount - 1);
+        target.setValueCount(rowCount);
+    }
+
+    // Copies the validity bits of count rows to the (zeroed) target bitmap, starting at bit targetRow.
+    // A batch without nulls may have no bitmap worth reading: its bits are all set instead.
+    private static void copyValidity(FieldVector source, int count, ArrowBuf target, int targetRow) {
+        ArrowBuf validity = source.getNullCount() == 0 ? null : source.getValidityBuffer();
+        int shift = targetRow & 7;
+        long targetByte = targetRow >>> 3;
+        int bytes = (count + 7) >>> 3;
+        int first = 0;
+        if (shift == 0 && validity != null) {
+            first = count >>> 3;
+            target.setBytes(targetByte, validity, 0, first);
+        }
+        for (int i = first; i < bytes; i++) {
+            int bits = validity == null ? 0xFF : validity.getByte(i) & 0xFF;
+            if (i == bytes - 1 && (count & 7) != 0) {
+                bits &= (1 << (count & 7)) - 1;
+            }
+            target.setByte(targetByte + i, target.getByte(targetByte + i) | (bits << shift));
+            if (shift != 0 && (bits >>> (8 - shift)) != 0) {
+                target.setByte(targetByte + i + 1, bits >>> (8 - shift));
+            }
+        }
+    }
+}
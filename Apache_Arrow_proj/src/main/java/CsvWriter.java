@@ -0,0 +1,284 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.vector.BaseIntVector;
+import org.apache.arrow.vector.BaseLargeVariableWidthVector;
+import org.apache.arrow.vector.BaseVariableWidthVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float4Vector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.UInt8Vector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+// Streaming CSV sink for Arrow batches. Cells are encoded straight from the vectors' buffers into one
+// reusable byte buffer, which goes to a FileChannel in large blocks:
+//  - integers are written digit by digit, floating point numbers through a reused StringBuilder,
+//  - strings are copied byte for byte from the data buffer, and quoted (RFC 4180) only when they hold
+//    a comma, a quote or a line break, like the addresses in breweries.csv,
+//  - nulls are empty fields, and empty strings "" so that the two read back apart.
+// None of that allocates per cell. Other types (dates, decimals, ...) fall back to getObject().
+class CsvWriter implements AutoCloseable {
+    static final int BUFFER_SIZE = 1 << 20;
+
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EMPTY_STRING = {'"', '"'};
+    private static final byte[] LONG_MIN = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+    private final FileChannel channel;
+    private byte[] buffer;
+    private int position = 0;
+    private final StringBuilder number = new StringBuilder(32);
+
+    CsvWriter(Path file) throws IOException {
+        this(file, BUFFER_SIZE);
+    }
+
+    CsvWriter(Path file, int bufferSize) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.buffer = new byte[Math.max(64, bufferSize)];
+    }
+
+    void writeHeader(Schema schema) throws IOException {
+        List<Field> fields = schema.getFields();
+        for (int c = 0; c < fields.size(); c++) {
+            if (c > 0) {
+                put((byte) ',');
+            }
+            writeString(fields.get(c).getName());
+        }
+        put((byte) '\n');
+    }
+
+    void write(VectorSchemaRoot batch) throws IOException {
+        List<FieldVector> vectors = batch.getFieldVectors();
+        int rowCount = batch.getRowCount();
+        for (int row = 0; row < rowCount; row++) {
+            for (int c = 0; c < vectors.size(); c++) {
+                if (c > 0) {
+                    put((byte) ',');
+                }
+                writeCell(vectors.get(c), row);
+            }
+            put((byte) '\n');
+        }
+    }
+
+    // Header followed by every batch of a relation
+    void write(Schema schema, List<VectorSchemaRoot> batches) throws IOException {
+        writeHeader(schema);
+        for (VectorSchemaRoot batch : batches) {
+            write(batch);
+        }
+    }
+
+    // One <alias>.csv file per join tree node, in the given directory; encoded join keys are written
+    // back as their strings
+    static void writeAll(Path directory, Main.ReducedDatabase database, BufferAllocator allocator) throws IOException {
+        Files.createDirectories(directory);
+        for (JoinTreeNode node : database.nodes()) {
+            List<VectorSchemaRoot> batches = database.get(node);
+            if (batches.isEmpty()) {
+                continue;
+            }
+            try (CsvWriter writer = new CsvWriter(directory.resolve(node.alias + ".csv"))) {
+                KeyDictionary.withDecoded(batches, database.dictionaries(), allocator,
+                        decoded -> writer.write(decoded.get(0).getSchema(), decoded));
+            }
+        }
+    }
+
+    private void writeCell(FieldVector vector, int row) throws IOException {
+        if (vector.isNull(row)) {
+            return;
+        }
+        if (vector instanceof BaseVariableWidthVector) {
+            BaseVariableWidthVector strings = (BaseVariableWidthVector) vector;
+            int start = strings.getStartOffset(row);
+            writeBytes(strings, start, strings.getStartOffset(row + 1) - start);
+        } else if (vector instanceof BaseLargeVariableWidthVector) {
+            BaseLargeVariableWidthVector strings = (BaseLargeVariableWidthVector) vector;
+            long start = strings.getOffsetBuffer().getLong((long) row * BaseLargeVariableWidthVector.OFFSET_WIDTH);
+            long end = strings.getOffsetBuffer().getLong((long) (row + 1) * BaseLargeVariableWidthVector.OFFSET_WIDTH);
+            writeBytes(strings, start, (int) (end - start));
+        } else if (vector instanceof UInt8Vector) {
+            long value = ((UInt8Vector) vector).get(row);
+            if (value >= 0) {
+                writeLong(value);
+            } else {
+                // above Long.MAX_VALUE: rare enough to go through a String
+                writeAscii(Long.toUnsignedString(value));
+            }
+        } else if (vector instanceof BaseIntVector) {
+            writeLong(((BaseIntVector) vector).getValueAsLong(row));
+        } else if (vector instanceof Float8Vector) {
+            number.setLength(0);
+            number.append(((Float8Vector) vector).get(row));
+            writeNumber();
+        } else if (vector instanceof Float4Vector) {
+            number.setLength(0);
+            number.append(((Float4Vector) vector).get(row));
+            writeNumber();
+        } else if (vector instanceof BitVector) {
+            put(((BitVector) vector).get(row) == 1 ? TRUE : FALSE);
+        } else {
+            writeString(String.valueOf(vector.getObject(row)));
+        }
+    }
+
+    // Raw UTF-8 bytes of a string cell, quoted when needed
+    private void writeBytes(FieldVector strings, long start, int length) throws IOException {
+        if (length == 0) {
+            put(EMPTY_STRING);
+            return;
+        }
+        ensure(length);
+        strings.getDataBuffer().getBytes(start, buffer, position, length);
+        int end = position + length;
+        for (int i = position; i < end; i++) {
+            byte b = buffer[i];
+            if (b == ',' || b == '"' || b == '\n' || b == '\r') {
+                quoteInPlace(length);
+                return;
+            }
+        }
+        position = end;
+    }
+
+    // The unquoted value is already at buffer[position .. position + length): rewrite it quoted, with
+    // every quote doubled. Working back to front lets the value be shifted without a second buffer.
+    private void quoteInPlace(int length) throws IOException {
+        int quotes = 0;
+        for (int i = position; i < position + length; i++) {
+            if (buffer[i] == '"') {
+                quotes++;
+            }
+        }
+        int quotedLength = length + quotes + 2;
+        if (buffer.length - position < quotedLength) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, position + quotedLength)];
+            System.arraycopy(buffer, 0, grown, 0, position + length);
+            buffer = grown;
+        }
+        int from = position + length - 1;
+        int to = position + quotedLength - 1;
+        buffer[to--] = '"';
+        for (; from >= position; from--) {
+            buffer[to--] = buffer[from];
+            if (buffer[from] == '"') {
+                buffer[to--] = '"';
+            }
+        }
+        buffer[to] = '"';
+        position += quotedLength;
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length == 0) {
+            put(EMPTY_STRING);
+            return;
+        }
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        int length = bytes.length;
+        for (byte b : bytes) {
+            if (b == ',' || b == '"' || b == '\n' || b == '\r') {
+                quoteInPlace(length);
+                return;
+            }
+        }
+        position += length;
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            put(LONG_MIN);
+            return;
+        }
+        ensure(20);
+        if (value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        int digits = digitsOf(value);
+        for (int i = position + digits - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        position += digits;
+    }
+
+    private static int digitsOf(long value) {
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        return digits;
+    }
+
+    private void writeNumber() throws IOException {
+        ensure(number.length());
+        for (int i = 0; i < number.length(); i++) {
+            buffer[position++] = (byte) number.charAt(i);
+        }
+    }
+
+    private void writeAscii(String value) throws IOException {
+        ensure(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            buffer[position++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void put(byte b) throws IOException {
+        if (position == buffer.length) {
+            flush();
+        }
+        buffer[position++] = b;
+    }
+
+    private void put(byte[] bytes) throws IOException {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    // Makes room for n more bytes: flushes first, grows the buffer only for a single value larger than it
+    private void ensure(int n) throws IOException {
+        if (buffer.length - position >= n) {
+            return;
+        }
+        flush();
+        if (buffer.length < n) {
+            buffer = new byte[n];
+        }
+    }
+
+    void flush() throws IOException {
+        ByteBuffer block = ByteBuffer.wrap(buffer, 0, position);
+        while (block.hasRemaining()) {
+            channel.write(block);
+        }
+        position = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
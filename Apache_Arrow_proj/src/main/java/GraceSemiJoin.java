@@ -0,0 +1,409 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.ValueVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowFileReader;
+import org.apache.arrow.vector.ipc.ArrowFileWriter;
+import org.apache.arrow.vector.ipc.message.ArrowBlock;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+// Out-of-core semi-join (Grace hash join) for build sides whose key table would not fit the memory
+// budget. Both sides are hash-partitioned on the join key into Arrow IPC spill files, so equal keys
+// always land in partitions with the same number; the partitions are then reduced one pair at a time,
+// holding a single build partition and its hash table in memory, while the probe partition is
+// streamed batch by batch. Only the key columns are spilled: the probe side also writes every row's
+// position (batch << 32 | row), and the result is the same selection vector as the in-memory
+// semi-join's, with rows in ascending order.
+//
+// The partition count is chosen from the build side's size so that an average partition fits the
+// budget. A build partition that still does not (skewed keys) is partitioned again, together with its
+// probe partition, with a hash of another seed, up to MAX_LEVELS deep. Rows with the same key always
+// stay together, though: a single key with more rows than the budget, which no seed can split, ends up
+// loaded whole with its partition, as are the partitions still too large at the deepest level.
+final class GraceSemiJoin {
+    static final int MAX_PARTITIONS = 256;
+    static final int MAX_LEVELS = 3;
+
+    private static final String ROW_POSITION = "__row_position";
+    private static final int MAX_SPILL_BATCH_ROWS = 4096;
+    private static final int MIN_SPILL_BATCH_ROWS = 64;
+    private static final long SPILL_BYTES_PER_ROW = 64;
+
+    // Where the spill files go (--spill-dir); every semi-join uses its own subdirectory, deleted at the end
+    static Path spillDirectory = Path.of(System.getProperty("java.io.tmpdir"));
+
+    private GraceSemiJoin() {
+    }
+
+    // Partitions needed for the hash table of buildRows keys to fit the budget, a power of two
+    static int partitionCount(long buildRows, long budget) {
+        int partitions = 2;
+        while (partitions < MAX_PARTITIONS && ArrowHashTable.bytesFor(buildRows / partitions + 1) > budget) {
+            partitions *= 2;
+        }
+        return partitions;
+    }
+
+    // Live rows of every left batch whose key appears among the live right rows, as Main.semiJoinSelection;
+    // the spill is counted in metrics unless it is null
+    static int[][] selection(List<VectorSchemaRoot> leftBatches, int[][] leftSelection,
+                             List<VectorSchemaRoot> rightBatches, int[][] rightSelection, List<String> columns,
+                             int partitions, long budget, BufferAllocator allocator, Metrics metrics) {
+        if (leftBatches.isEmpty()) {
+            return new int[0][];
+        }
+        if (metrics != null) {
+            metrics.joins.increment();
+        }
+        int spillRows = (int) Math.max(MIN_SPILL_BATCH_ROWS,
+                Math.min(MAX_SPILL_BATCH_ROWS, budget / ((long) partitions * SPILL_BYTES_PER_ROW)));
+        Path directory = null;
+        try {
+            directory = Files.createTempDirectory(Files.createDirectories(spillDirectory), "semi-join");
+            Partitions left = partition(leftBatches, leftSelection, columns, true, partitions, spillRows, directory, "left",
+                    allocator, metrics);
+            Partitions right = partition(rightBatches, rightSelection, columns, false, partitions, spillRows, directory, "right",
+                    allocator, metrics);
+
+            int[][] kept = new int[leftBatches.size()][];
+            int[] keptCount = new int[leftBatches.size()];
+            for (int b = 0; b < kept.length; b++) {
+                kept[b] = new int[leftSelection == null || leftSelection[b] == null
+                        ? leftBatches.get(b).getRowCount() : leftSelection[b].length];
+            }
+            reduce(left, right, columns, Long.MAX_VALUE, budget, spillRows, directory, kept, keptCount, allocator, metrics);
+
+            int[][] matches = new int[leftBatches.size()][];
+            for (int b = 0; b < matches.length; b++) {
+                Arrays.sort(kept[b], 0, keptCount[b]);
+                boolean everyRow = (leftSelection == null || leftSelection[b] == null)
+                        && keptCount[b] == leftBatches.get(b).getRowCount();
+                matches[b] = everyRow ? null : Arrays.copyOf(kept[b], keptCount[b]);
+            }
+            return matches;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not spill a semi-join to " + spillDirectory, e);
+        } finally {
+            delete(directory);
+        }
+    }
+
+    // Reduces the partition pairs one at a time. A build partition over the budget is split again when
+    // that can help: not at the deepest level, and not when the last split left all its rows together.
+    private static void reduce(Partitions left, Partitions right, List<String> columns, long parentRows, long budget,
+                               int spillRows, Path directory, int[][] kept, int[] keptCount,
+                               BufferAllocator allocator, Metrics metrics) throws IOException {
+        for (int p = 0; p < left.files.length; p++) {
+            if (left.files[p] != null && right.files[p] != null) {
+                long buildRows = right.rows[p];
+                boolean oversized = Files.size(right.files[p]) + ArrowHashTable.bytesFor(buildRows) > budget;
+                if (oversized && left.level + 1 < MAX_LEVELS && buildRows < parentRows) {
+                    int partitions = partitionCount(buildRows, budget);
+                    Partitions leftParts = partition(left.files[p], columns, true, partitions, left.level + 1, spillRows,
+                            directory, left.name + "-" + p, allocator, metrics);
+                    Partitions rightParts = partition(right.files[p], columns, false, partitions, right.level + 1, spillRows,
+                            directory, right.name + "-" + p, allocator, metrics);
+                    Files.delete(left.files[p]);
+                    Files.delete(right.files[p]);
+                    reduce(leftParts, rightParts, columns, buildRows, budget, spillRows, directory, kept, keptCount,
+                            allocator, metrics);
+                } else {
+                    probePartition(left.files[p], right.files[p], columns, kept, keptCount, allocator);
+                }
+            }
+            // Disk space of the pairs done is given back as the reduction goes
+            for (Path file : new Path[] {left.files[p], right.files[p]}) {
+                if (file != null) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    // Spills the key (and, on the probe side, the position) of every live row with no null in its key
+    // to the file of its partition
+    private static Partitions partition(List<VectorSchemaRoot> batches, int[][] selection, List<String> columns,
+                                        boolean withPositions, int partitions, int spillRows, Path directory, String name,
+                                        BufferAllocator allocator, Metrics metrics) throws IOException {
+        try (Partitioner partitioner = new Partitioner(batches.get(0).getSchema(), columns, withPositions, partitions, 0,
+                spillRows, directory, name, allocator, metrics)) {
+            for (int b = 0; b < batches.size(); b++) {
+                partitioner.add(batches.get(b), selection == null ? null : selection[b], b);
+            }
+            return partitioner.finish();
+        }
+    }
+
+    // Splits a spilled partition one level further, streaming it batch by batch; spilled probe rows
+    // keep the position they were written with
+    private static Partitions partition(Path file, List<String> columns, boolean withPositions, int partitions, int level,
+                                        int spillRows, Path directory, String name,
+                                        BufferAllocator allocator, Metrics metrics) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             ArrowFileReader reader = new ArrowFileReader(channel, allocator)) {
+            VectorSchemaRoot batch = reader.getVectorSchemaRoot();
+            try (Partitioner partitioner = new Partitioner(batch.getSchema(), columns, withPositions, partitions, level,
+                    spillRows, directory, name, allocator, metrics)) {
+                for (ArrowBlock block : reader.getRecordBlocks()) {
+                    reader.loadRecordBatch(block);
+                    partitioner.add(batch, null, -1);
+                }
+                return partitioner.finish();
+            }
+        }
+    }
+
+    // Partition of a key hash at the given level. Level 0 takes the top bits of a multiplicative hash,
+    // independent of the bits the table probes with; the rows of one partition share those bits, so
+    // every deeper level mixes the hash with its own seed first.
+    private static int partitionOf(int hash, int level, int shift) {
+        long mixed = hash;
+        if (level > 0) {
+            mixed ^= level * 0xC2B2AE3D27D4EB4FL;
+            mixed = (mixed ^ (mixed >>> 33)) * 0xFF51AFD7ED558CCDL;
+            mixed = (mixed ^ (mixed >>> 33)) * 0xC4CEB9FE1A85EC53L;
+            mixed ^= mixed >>> 33;
+        }
+        return (int) ((mixed * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    // Builds the table of one right partition and streams the matching left partition through it
+    private static void probePartition(Path leftFile, Path rightFile, List<String> columns, int[][] kept, int[] keptCount,
+                                       BufferAllocator allocator) throws IOException {
+        List<VectorSchemaRoot> build = ArrowIpc.read(rightFile, allocator);
+        try {
+            int buildRows = 0;
+            for (VectorSchemaRoot batch : build) {
+                buildRows += batch.getRowCount();
+            }
+            try (ArrowHashTable table = ArrowHashTable.keySet(build, null, columns, buildRows, allocator);
+                 FileChannel channel = FileChannel.open(leftFile, StandardOpenOption.READ);
+                 ArrowFileReader reader = new ArrowFileReader(channel, allocator)) {
+                VectorSchemaRoot probe = reader.getVectorSchemaRoot();
+                for (ArrowBlock block : reader.getRecordBlocks()) {
+                    reader.loadRecordBatch(block);
+                    ArrowHashTable.Keys keys = ArrowHashTable.Keys.of(probe, columns);
+                    BigIntVector positions = (BigIntVector) probe.getVector(ROW_POSITION);
+                    for (int row = 0; row < probe.getRowCount(); row++) {
+                        if (table.contains(keys, row, keys.hash(row))) {
+                            long position = positions.get(row);
+                            int b = (int) (position >>> 32);
+                            kept[b][keptCount[b]++] = (int) position;
+                        }
+                    }
+                }
+            }
+        } finally {
+            build.forEach(VectorSchemaRoot::close);
+        }
+    }
+
+    private static void delete(Path directory) {
+        if (directory == null) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        } catch (IOException e) {
+            System.err.println("Could not delete spill directory " + directory + ": " + e.getMessage());
+        }
+    }
+
+    // The spill files of one side at one level: files[p] is null for the partitions that got no rows
+    private static final class Partitions {
+        private final String name;
+        private final int level;
+        private final Path[] files;
+        private final long[] rows;
+
+        Partitions(String name, int level, Path[] files, long[] rows) {
+            this.name = name;
+            this.level = level;
+            this.files = files;
+            this.rows = rows;
+        }
+    }
+
+    // Routes rows to the writer of their partition, opened on the first row it gets
+    private static final class Partitioner implements AutoCloseable {
+        private final List<String> columns;
+        private final boolean withPositions;
+        private final int level;
+        private final int shift;
+        private final int spillRows;
+        private final Path directory;
+        private final String name;
+        private final Schema schema;
+        private final BufferAllocator allocator;
+        private final Metrics metrics;
+        private final Path[] files;
+        private final long[] rows;
+        private final PartitionWriter[] writers;
+
+        Partitioner(Schema source, List<String> columns, boolean withPositions, int partitions, int level, int spillRows,
+                    Path directory, String name, BufferAllocator allocator, Metrics metrics) {
+            List<Field> fields = new ArrayList<>();
+            for (String column : columns) {
+                Field field = source.findField(column);
+                fields.add(new Field(column, field.getFieldType(), field.getChildren()));
+            }
+            if (withPositions) {
+                fields.add(Field.notNullable(ROW_POSITION, new ArrowType.Int(64, true)));
+            }
+            this.schema = new Schema(fields);
+            this.columns = columns;
+            this.withPositions = withPositions;
+            this.level = level;
+            this.shift = 64 - Integer.numberOfTrailingZeros(partitions);
+            this.spillRows = spillRows;
+            this.directory = directory;
+            this.name = name;
+            this.allocator = allocator;
+            this.metrics = metrics;
+            this.files = new Path[partitions];
+            this.rows = new long[partitions];
+            this.writers = new PartitionWriter[partitions];
+        }
+
+        // The live rows of one batch; the position of a row is batchIndex << 32 | row, unless the batch
+        // was read back from a probe partition and already has one
+        void add(VectorSchemaRoot batch, int[] selection, int batchIndex) throws IOException {
+            ArrowHashTable.Keys keys = ArrowHashTable.Keys.of(batch, columns);
+            ValueVector[] keyColumns = new ValueVector[columns.size()];
+            for (int c = 0; c < keyColumns.length; c++) {
+                keyColumns[c] = batch.getVector(columns.get(c));
+            }
+            BigIntVector positions = withPositions && batchIndex < 0 ? (BigIntVector) batch.getVector(ROW_POSITION) : null;
+            int liveCount = selection == null ? batch.getRowCount() : selection.length;
+            for (int k = 0; k < liveCount; k++) {
+                int row = selection == null ? k : selection[k];
+                if (keys.hasNull(row)) {
+                    continue;
+                }
+                int p = partitionOf(keys.hash(row), level, shift);
+                if (writers[p] == null) {
+                    files[p] = directory.resolve(name + "-" + p + ArrowIpc.EXTENSION);
+                    writers[p] = new PartitionWriter(files[p], schema, spillRows, allocator);
+                }
+                long position = !withPositions ? -1 : positions != null ? positions.get(row) : ((long) batchIndex << 32) | row;
+                writers[p].append(keyColumns, row, position);
+                rows[p]++;
+            }
+        }
+
+        Partitions finish() throws IOException {
+            for (int p = 0; p < writers.length; p++) {
+                if (writers[p] != null) {
+                    writers[p].finish();
+                    if (metrics != null) {
+                        metrics.rows.add(rows[p]);
+                    }
+                }
+            }
+            return new Partitions(name, level, files, rows);
+        }
+
+        @Override
+        public void close() {
+            for (PartitionWriter writer : writers) {
+                if (writer != null) {
+                    writer.close();
+                }
+            }
+        }
+    }
+
+    // Rows of one partition are copied into a small staging root, written out every spillRows rows
+    private static final class PartitionWriter implements AutoCloseable {
+        private final VectorSchemaRoot staging;
+        private final ArrowFileWriter writer;
+        private final int spillRows;
+        private int rowCount = 0;
+
+        PartitionWriter(Path file, Schema schema, int spillRows, BufferAllocator allocator) throws IOException {
+            this.staging = VectorSchemaRoot.create(schema, allocator);
+            this.spillRows = spillRows;
+            try {
+                staging.allocateNew();
+                this.writer = ArrowIpc.openWriter(file, staging);
+            } catch (IOException | RuntimeException e) {
+                staging.close();
+                throw e;
+            }
+        }
+
+        void append(ValueVector[] keyColumns, int row, long position) throws IOException {
+            List<FieldVector> vectors = staging.getFieldVectors();
+            for (int c = 0; c < keyColumns.length; c++) {
+                vectors.get(c).copyFromSafe(row, rowCount, keyColumns[c]);
+            }
+            if (position >= 0) {
+                ((BigIntVector) vectors.get(keyColumns.length)).setSafe(rowCount, position);
+            }
+            if (++rowCount == spillRows) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            if (rowCount == 0) {
+                return;
+            }
+            staging.setRowCount(rowCount);
+            writer.writeBatch();
+            for (FieldVector vector : staging.getFieldVectors()) {
+                vector.reset();
+            }
+            rowCount = 0;
+        }
+
+        void finish() throws IOException {
+            flush();
+            writer.end();
+        }
+
+        @Override
+        public void close() {
+            try {
+                writer.close();
+            } finally {
+                staging.close();
+            }
+        }
+    }
+
+    // Totals over every semi-join spilled for one query (kept by its ReducedDatabase); rows written again
+    // by a deeper level count again
+    static final class Metrics {
+        private final LongAdder joins = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+
+        long getJoins() {
+            return joins.sum();
+        }
+
+        long getRows() {
+            return rows.sum();
+        }
+
+        @Override
+        public String toString() {
+            return joins.sum() + " semi-joins spilled to disk (" + rows.sum() + " rows)";
+        }
+    }
+}
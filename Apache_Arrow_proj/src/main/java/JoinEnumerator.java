@@ -0,0 +1,326 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.ValueVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+
+// Final phase of Yannakakis: enumerates the answers of the query over the fully reduced relations.
+// Every node of the join tree gets a hash index on the variables it shares with its parent; answers
+// are produced by walking the nodes in pre order, so each child only ever sees the tuples matching
+// its parent's current tuple. No intermediate join result is built: after a full reduction there
+// are no dead ends, so the work is bounded by the size of the input plus the size of the output.
+//
+// The indexes are off-heap ArrowHashTables when the key types allow it (HashMaps of CompositeKeys
+// otherwise), so enumerating allocates nothing per answer beyond the output vectors.
+//
+// Answers come out in batches of at most batchSize rows, ArrowReader style: loadNextBatch() fills
+// the root returned by getVectorSchemaRoot(), which is reused (and overwritten) by the next call.
+// Projecting on the head variables keeps duplicates (bag semantics).
+class JoinEnumerator implements AutoCloseable {
+    private static final int END = -1;
+
+    private final int batchSize;
+    private final int nodeCount;
+    private final int[] parentOf;                 // index of the parent in pre order, -1 for the root
+    private final ValueVector[][][] keyColumns;   // [node][batch] columns shared with the parent
+    private final ValueVector[][][] parentKeys;   // [node][parent batch] same variables, on the parent side
+    private final ArrowHashTable[] index;         // [node] key -> first row of its chain
+    private final ArrowHashTable.Keys[][] parentIndexKeys;  // [node][parent batch] probe side of index
+    private final List<Map<CompositeKey, Integer>> firstMatch;  // fallback index for other key types
+
+    // Candidate rows of every node, chained per join key: refs holds (batch << 32 | row)
+    private final long[][] refs;
+    private final int[][] next;
+    private final int[] cursor;
+
+    private final VectorSchemaRoot output;
+    private final int[] sourceNode;
+    private final ValueVector[][] sourceVectors;  // [output column][batch of the source node]
+    private final VarCharVector[] dictionaries;   // [output column] strings of an encoded join variable, or null
+
+    private boolean started = false;
+    private boolean exhausted = false;
+
+    @SuppressWarnings("unchecked")
+    JoinEnumerator(JoinTree tree, Main.ReducedDatabase database, List<String> variables, int batchSize, BufferAllocator allocator) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+
+        int[] preOrder = tree.preOrder();
+        int[] position = new int[tree.getSize()];   // node id -> index in pre order
+        List<JoinTreeNode> nodes = new ArrayList<>();
+        for (int id : preOrder) {
+            position[id] = nodes.size();
+            nodes.add(tree.getNode(id));
+        }
+        this.nodeCount = nodes.size();
+        this.parentOf = new int[nodeCount];
+        this.keyColumns = new ValueVector[nodeCount][][];
+        this.parentKeys = new ValueVector[nodeCount][][];
+        this.index = new ArrowHashTable[nodeCount];
+        this.parentIndexKeys = new ArrowHashTable.Keys[nodeCount][];
+        this.firstMatch = new ArrayList<>(Collections.nCopies(nodeCount, null));
+        this.refs = new long[nodeCount][];
+        this.next = new int[nodeCount][];
+        this.cursor = new int[nodeCount];
+        this.exhausted = nodeCount == 0;
+
+        // The indexes are off-heap: release the ones already built if anything below fails
+        try {
+            for (int i = 0; i < nodeCount; i++) {
+                JoinTreeNode node = nodes.get(i);
+                List<VectorSchemaRoot> batches = database.get(node);
+                parentOf[i] = node.parent == null ? -1 : position[node.parent.id];
+                if (parentOf[i] < 0) {
+                    listAllRows(i, batches);
+                } else {
+                    List<String> joinVariables = new Main.PairChildParent(node, node.parent).commonColumns;
+                    keyColumns[i] = columns(batches, joinVariables);
+                    parentKeys[i] = columns(database.get(node.parent), joinVariables);
+                    if (Main.useArrowHashTable && !joinVariables.isEmpty()
+                            && ArrowHashTable.supports(database.get(node.parent), batches, joinVariables)) {
+                        buildArrowIndex(i, batches, database.get(node.parent), joinVariables, allocator);
+                    } else {
+                        buildIndex(i, batches);
+                    }
+                }
+            }
+
+            // Every answer variable is read from the first node (in pre order) that binds it
+            List<FieldVector> outputVectors = new ArrayList<>();
+            this.sourceNode = new int[variables.size()];
+            this.sourceVectors = new ValueVector[variables.size()][];
+            this.dictionaries = new VarCharVector[variables.size()];
+            for (int c = 0; c < variables.size(); c++) {
+                String variable = variables.get(c);
+                sourceNode[c] = -1;
+                for (int i = 0; i < nodeCount && sourceNode[c] < 0; i++) {
+                    if (nodes.get(i).atom.contains(variable)) {
+                        sourceNode[c] = i;
+                    }
+                }
+                if (sourceNode[c] < 0) {
+                    throw new IllegalArgumentException("Variable " + variable + " does not appear in the query body");
+                }
+                List<VectorSchemaRoot> batches = database.get(nodes.get(sourceNode[c]));
+                sourceVectors[c] = new ValueVector[batches.size()];
+                for (int b = 0; b < batches.size(); b++) {
+                    sourceVectors[c][b] = batches.get(b).getVector(variable);
+                }
+                Field field = batches.isEmpty() ? Field.nullable(variable, ArrowType.Null.INSTANCE)
+                        : new Field(variable, sourceVectors[c][0].getField().getFieldType(), sourceVectors[c][0].getField().getChildren());
+                // Encoded join variables are answered with their strings, not their codes
+                if (!batches.isEmpty() && sourceVectors[c][0] instanceof IntVector && database.dictionary(variable) != null) {
+                    dictionaries[c] = database.dictionary(variable);
+                    field = KeyDictionary.decodedField(variable, dictionaries[c]);
+                }
+                outputVectors.add(field.createVector(allocator));
+            }
+            this.output = new VectorSchemaRoot(outputVectors);
+        } catch (RuntimeException e) {
+            closeIndexes();
+            throw e;
+        }
+    }
+
+    public VectorSchemaRoot getVectorSchemaRoot() {
+        return output;
+    }
+
+    // Fills the output root with up to batchSize answers; false once every answer has been returned
+    public boolean loadNextBatch() {
+        output.allocateNew();
+        int rows = 0;
+        while (rows < batchSize && advance()) {
+            for (int c = 0; c < sourceNode.length; c++) {
+                long ref = refs[sourceNode[c]][cursor[sourceNode[c]]];
+                ValueVector source = sourceVectors[c][(int) (ref >>> 32)];
+                if (dictionaries[c] == null) {
+                    output.getVector(c).copyFromSafe((int) ref, rows, source);
+                } else if (source.isNull((int) ref)) {
+                    ((VarCharVector) output.getVector(c)).setNull(rows);
+                } else {
+                    output.getVector(c).copyFromSafe(((IntVector) source).get((int) ref), rows, dictionaries[c]);
+                }
+            }
+            rows++;
+        }
+        output.setRowCount(rows);
+        return rows > 0;
+    }
+
+    // Moves every node to the next combination of matching tuples
+    private boolean advance() {
+        if (exhausted) {
+            return false;
+        }
+        int from;
+        if (!started) {
+            started = true;
+            from = 0;
+        } else {
+            from = backtrack(nodeCount - 1);
+        }
+        if (from < 0 || !settle(from)) {
+            exhausted = true;
+            return false;
+        }
+        return true;
+    }
+
+    // Places nodes from..nodeCount-1 on their first candidate, backtracking when a node has none
+    private boolean settle(int from) {
+        int i = from;
+        while (i < nodeCount) {
+            cursor[i] = firstCandidate(i);
+            if (cursor[i] != END) {
+                i++;
+            } else {
+                i = backtrack(i - 1);
+                if (i < 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Advances the deepest node (at or before i) that still has candidates; returns the index after it
+    private int backtrack(int i) {
+        for (; i >= 0; i--) {
+            int following = next[i][cursor[i]];
+            if (following != END) {
+                cursor[i] = following;
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private int firstCandidate(int i) {
+        if (parentOf[i] < 0) {
+            return refs[i].length == 0 ? END : 0;
+        }
+        long parentRef = refs[parentOf[i]][cursor[parentOf[i]]];
+        ValueVector[] probe = parentKeys[i][(int) (parentRef >>> 32)];
+        int parentRow = (int) parentRef;
+        if (CompositeKey.hasNull(probe, parentRow)) {
+            return END;
+        }
+        if (index[i] != null) {
+            ArrowHashTable.Keys keys = parentIndexKeys[i][(int) (parentRef >>> 32)];
+            int first = index[i].get(keys, parentRow, keys.hash(parentRow));
+            return first == ArrowHashTable.NONE ? END : first;
+        }
+        Integer first = firstMatch.get(i).get(new CompositeKey(probe, parentRow));
+        return first == null ? END : first;
+    }
+
+    private void listAllRows(int i, List<VectorSchemaRoot> batches) {
+        int total = 0;
+        for (VectorSchemaRoot batch : batches) {
+            total += batch.getRowCount();
+        }
+        refs[i] = new long[total];
+        next[i] = new int[total];
+        int k = 0;
+        for (int b = 0; b < batches.size(); b++) {
+            for (int row = 0; row < batches.get(b).getRowCount(); row++) {
+                refs[i][k] = ((long) b << 32) | row;
+                next[i][k] = k + 1 < total ? k + 1 : END;
+                k++;
+            }
+        }
+    }
+
+    // Hash index on the parent-shared variables; rows with the same key are chained through next[]
+    private void buildIndex(int i, List<VectorSchemaRoot> batches) {
+        int total = 0;
+        for (VectorSchemaRoot batch : batches) {
+            total += batch.getRowCount();
+        }
+        refs[i] = new long[total];
+        next[i] = new int[total];
+        Map<CompositeKey, Integer> firstRows = new HashMap<>(Math.max(16, (int) (total / 0.75f) + 1));
+        firstMatch.set(i, firstRows);
+        int k = 0;
+        // Rows are inserted back to front so every chain lists its rows in their original order
+        for (int b = batches.size() - 1; b >= 0; b--) {
+            ValueVector[] key = keyColumns[i][b];
+            for (int row = batches.get(b).getRowCount() - 1; row >= 0; row--) {
+                if (CompositeKey.hasNull(key, row)) {
+                    continue;
+                }
+                refs[i][k] = ((long) b << 32) | row;
+                Integer previous = firstRows.put(new CompositeKey(key, row), k);
+                next[i][k] = previous == null ? END : previous;
+                k++;
+            }
+        }
+    }
+
+    // Same chains, indexed by an off-heap table
+    private void buildArrowIndex(int i, List<VectorSchemaRoot> batches, List<VectorSchemaRoot> parentBatches,
+                                 List<String> joinVariables, BufferAllocator allocator) {
+        int total = 0;
+        ArrowHashTable.Keys[] keys = new ArrowHashTable.Keys[batches.size()];
+        for (int b = 0; b < batches.size(); b++) {
+            total += batches.get(b).getRowCount();
+            keys[b] = ArrowHashTable.Keys.of(batches.get(b), joinVariables);
+        }
+        parentIndexKeys[i] = new ArrowHashTable.Keys[parentBatches.size()];
+        for (int b = 0; b < parentBatches.size(); b++) {
+            parentIndexKeys[i][b] = ArrowHashTable.Keys.of(parentBatches.get(b), joinVariables);
+        }
+        refs[i] = new long[total];
+        next[i] = new int[total];
+        index[i] = new ArrowHashTable(keys, total, allocator);
+        int k = 0;
+        for (int b = batches.size() - 1; b >= 0; b--) {
+            for (int row = batches.get(b).getRowCount() - 1; row >= 0; row--) {
+                if (keys[b].hasNull(row)) {
+                    continue;
+                }
+                refs[i][k] = ((long) b << 32) | row;
+                next[i][k] = index[i].put(b, row, keys[b].hash(row), k);
+                k++;
+            }
+        }
+    }
+
+    private static ValueVector[][] columns(List<VectorSchemaRoot> batches, List<String> names) {
+        ValueVector[][] columns = new ValueVector[batches.size()][names.size()];
+        for (int b = 0; b < batches.size(); b++) {
+            for (int c = 0; c < names.size(); c++) {
+                columns[b][c] = batches.get(b).getVector(names.get(c));
+            }
+        }
+        return columns;
+    }
+
+    @Override
+    public void close() {
+        closeIndexes();
+        output.close();
+    }
+
+    private void closeIndexes() {
+        for (int i = 0; i < nodeCount; i++) {
+            if (index[i] != null) {
+                index[i].close();
+                index[i] = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+import java.util.Comparator;
+import java.util.function.ToLongFunction;
+
+// Cost-based shape of the join tree for the full reducer. Any node of a join tree can be its root (only
+// the parent links along one path flip), and the children of a node can be joined in any order:
+// neither changes the result, both change how much the semi-joins build and probe. The acyclicity test
+// leaves the root wherever its search happened to start, so once the atoms are scanned, and the
+// cardinality of every relation after its constants is known exactly, the tree is reshaped:
+//  - the largest relation becomes the root. Bottom-up, a parent probes the key table of each child, so
+//    the big relation is only ever probed, once its children are reduced, instead of being hashed as
+//    some parent's build side; top-down it is already reduced when it becomes a build side.
+//  - children are joined smallest first: the most selective relations (one narrowed by a constant, say)
+//    shrink their parent before the larger ones are joined with it, so later semi-joins probe fewer rows.
+final class JoinOrder {
+    private JoinOrder() {
+    }
+
+    // Re-roots the tree and orders its children from the cardinality of every node; returns whether the
+    // shape changed (a tree already in that shape is left as it is, ties keep the current order)
+    static boolean optimize(JoinTree tree, ToLongFunction<JoinTreeNode> cardinality) {
+        if (tree.getRoot() == null || tree.getSize() < 2) {
+            return false;
+        }
+        long[] rows = new long[tree.getSize()];
+        JoinTreeNode largest = tree.getRoot();
+        for (JoinTreeNode node : tree.getNodes()) {
+            rows[node.id] = cardinality.applyAsLong(node);
+        }
+        for (JoinTreeNode node : tree.getNodes()) {
+            if (rows[node.id] > rows[largest.id]) {
+                largest = node;
+            }
+        }
+        boolean changed = largest != tree.getRoot();
+        tree.reroot(largest);
+        changed |= tree.sortChildren(Comparator.comparingLong(node -> rows[node.id]));
+        return changed;
+    }
+}
@@ -0,0 +1,190 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.ValueVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.util.TransferPair;
+
+// Global dictionary encoding of string join keys. For every join variable bound to a VarChar column in
+// all the relations that share it, the distinct strings of those relations get dense int codes, and
+// the column is replaced by an IntVector of codes under the same name. Equal strings get equal codes
+// in every relation, so semi-joins and the final join hash and compare 4-byte ints instead of byte
+// ranges, and each join key takes 4 bytes (plus one copy of every distinct string).
+//
+// The dictionary of a variable is a VarCharVector holding the string of code i at index i; values are
+// decoded back only where they leave the engine (answers, exported relations).
+final class KeyDictionary {
+    private KeyDictionary() {
+    }
+
+    // Join variables of the tree: those a node shares with its parent
+    static Set<String> joinVariables(JoinTree tree) {
+        Set<String> variables = new LinkedHashSet<>();
+        for (JoinTreeNode node : tree.getNodes()) {
+            if (node.parent != null) {
+                variables.addAll(new Main.PairChildParent(node, node.parent).commonColumns);
+            }
+        }
+        return variables;
+    }
+
+    // Encodes every string join variable of the database in place and registers its dictionary
+    static void encodeJoinVariables(JoinTree tree, Main.ReducedDatabase database, BufferAllocator allocator) {
+        for (String variable : joinVariables(tree)) {
+            List<JoinTreeNode> nodes = new ArrayList<>();
+            boolean strings = true;
+            for (JoinTreeNode node : database.nodes()) {
+                if (!node.atom.contains(variable)) {
+                    continue;
+                }
+                nodes.add(node);
+                for (VectorSchemaRoot batch : database.get(node)) {
+                    strings &= batch.getVector(variable) instanceof VarCharVector;
+                }
+            }
+            if (strings && nodes.size() > 1) {
+                encode(variable, nodes, database, allocator);
+            }
+        }
+    }
+
+    private static void encode(String variable, List<JoinTreeNode> nodes, Main.ReducedDatabase database, BufferAllocator allocator) {
+        VarCharVector values = new VarCharVector(variable, allocator);
+        values.allocateNew();
+        ValueVector[] valueColumn = {values};
+        Map<CompositeKey, Integer> codes = new HashMap<>();
+        int distinct = 0;
+
+        try {
+            for (JoinTreeNode node : nodes) {
+                List<VectorSchemaRoot> batches = database.get(node);
+                int[][] selection = database.selection(node);
+                // Every column of codes is allocated before any batch is touched, so running out of
+                // memory leaves the node as it was
+                List<IntVector> encodedColumns = new ArrayList<>();
+                try {
+                    for (int b = 0; b < batches.size(); b++) {
+                        VectorSchemaRoot batch = batches.get(b);
+                        VarCharVector strings = (VarCharVector) batch.getVector(variable);
+                        ValueVector[] stringColumn = {strings};
+                        IntVector encoded = new IntVector(variable, allocator);
+                        encodedColumns.add(encoded);
+                        // Rows the scan already dropped keep a null code (allocateNew zeroes the validity)
+                        encoded.allocateNew(batch.getRowCount());
+                        int[] rows = selection == null ? null : selection[b];
+                        int liveCount = rows == null ? batch.getRowCount() : rows.length;
+                        for (int k = 0; k < liveCount; k++) {
+                            int row = rows == null ? k : rows[k];
+                            if (strings.isNull(row)) {
+                                continue;
+                            }
+                            Integer code = codes.get(new CompositeKey(stringColumn, row));
+                            if (code == null) {
+                                code = distinct++;
+                                values.copyFromSafe(row, code, strings);
+                                codes.put(new CompositeKey(valueColumn, code), code);
+                            }
+                            encoded.set(row, code);
+                        }
+                        encoded.setValueCount(batch.getRowCount());
+                    }
+                } catch (RuntimeException e) {
+                    encodedColumns.forEach(IntVector::close);
+                    throw e;
+                }
+                List<VectorSchemaRoot> encodedBatches = new ArrayList<>();
+                for (int b = 0; b < batches.size(); b++) {
+                    encodedBatches.add(replaceColumn(batches.get(b), variable, encodedColumns.get(b)));
+                }
+                // Row positions are unchanged, so the selection of the node still applies; replacing
+                // releases the string columns
+                database.replace(node, encodedBatches, database.selection(node));
+            }
+        } catch (RuntimeException e) {
+            values.close();
+            throw e;
+        }
+        values.setValueCount(distinct);
+        database.addDictionary(variable, values);
+    }
+
+    // Same batch with one column swapped; the buffers of the other columns are transferred (not copied)
+    // to the new root, so closing the old one only releases the swapped column
+    private static VectorSchemaRoot replaceColumn(VectorSchemaRoot batch, String name, FieldVector column) {
+        List<FieldVector> vectors = new ArrayList<>();
+        for (FieldVector vector : batch.getFieldVectors()) {
+            if (vector.getName().equals(name)) {
+                vectors.add(column);
+            } else {
+                TransferPair transfer = vector.getTransferPair(vector.getAllocator());
+                transfer.transfer();
+                vectors.add((FieldVector) transfer.getTo());
+            }
+        }
+        VectorSchemaRoot replaced = new VectorSchemaRoot(vectors);
+        replaced.setRowCount(batch.getRowCount());
+        return replaced;
+    }
+
+    // Field of the decoded column, as it was before encoding
+    static Field decodedField(String variable, VarCharVector dictionary) {
+        return new Field(variable, dictionary.getField().getFieldType(), null);
+    }
+
+    // Strings of a column of codes, in a new vector owned by the caller
+    static VarCharVector decode(IntVector codes, VarCharVector dictionary, BufferAllocator allocator) {
+        VarCharVector decoded = (VarCharVector) decodedField(codes.getName(), dictionary).createVector(allocator);
+        decoded.allocateNew();
+        for (int row = 0; row < codes.getValueCount(); row++) {
+            if (codes.isNull(row)) {
+                decoded.setNull(row);
+            } else {
+                decoded.copyFromSafe(codes.get(row), row, dictionary);
+            }
+        }
+        decoded.setValueCount(codes.getValueCount());
+        return decoded;
+    }
+
+    // Runs the action on views of the batches with every encoded column decoded; the views share the
+    // other columns, and the decoded vectors only live during the call
+    static <E extends Exception> void withDecoded(List<VectorSchemaRoot> batches, Map<String, VarCharVector> dictionaries,
+                                                  BufferAllocator allocator, BatchesAction<E> action) throws E {
+        List<VectorSchemaRoot> views = new ArrayList<>();
+        List<FieldVector> decoded = new ArrayList<>();
+        try {
+            for (VectorSchemaRoot batch : batches) {
+                List<FieldVector> vectors = new ArrayList<>();
+                for (FieldVector vector : batch.getFieldVectors()) {
+                    VarCharVector dictionary = dictionaries.get(vector.getName());
+                    if (dictionary != null && vector instanceof IntVector) {
+                        FieldVector strings = decode((IntVector) vector, dictionary, allocator);
+                        decoded.add(strings);
+                        vectors.add(strings);
+                    } else {
+                        vectors.add(vector);
+                    }
+                }
+                VectorSchemaRoot view = new VectorSchemaRoot(vectors);
+                view.setRowCount(batch.getRowCount());
+                views.add(view);
+            }
+            action.accept(views);
+        } finally {
+            decoded.forEach(FieldVector::close);
+        }
+    }
+
+    interface BatchesAction<E extends Exception> {
+        void accept(List<VectorSchemaRoot> batches) throws E;
+    }
+}
@@ -9,30 +9,23 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.Iterator;
 
-import org.apache.arrow.dataset.file.FileFormat;
-import org.apache.arrow.dataset.file.FileSystemDatasetFactory;
-import org.apache.arrow.dataset.jni.NativeMemoryPool;
-import org.apache.arrow.dataset.scanner.ScanOptions;
-
-import org.apache.arrow.dataset.scanner.Scanner;
-import org.apache.arrow.dataset.source.Dataset;
-import org.apache.arrow.dataset.source.DatasetFactory;
+
 import org.apache.arrow.memory.BufferAllocator;
-import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.memory.OutOfMemoryException;
 import org.apache.arrow.vector.*;
 import org.apache.arrow.vector.ipc.*;
 import org.apache.arrow.vector.ipc.message.ArrowRecordBatch;
-import org.apache.arrow.vector.types.pojo.Field;
 
 
 import org.apache.arrow.vector.types.pojo.Schema;
 import org.apache.arrow.vector.util.Text;
-import org.apache.arrow.vector.util.TransferPair;
 
 
 import javax.swing.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import static java.util.Arrays.asList;
 
@@ -99,9 +92,38 @@ class ConjunctiveQuery {
     private Atom head;
     private List<Atom> body;
 
+    // Variables are interned to dense ids once, when the query is built
+    private final Map<String, Integer> variableIds = new HashMap<>();
+    private final List<String> variableNames = new ArrayList<>();
+    private final BitSet[] atomVariables;
+
     public ConjunctiveQuery(Atom head, List<Atom> body) {
         this.head = head;
         this.body = body;
+        this.atomVariables = new BitSet[body.size()];
+        for (int i = 0; i < body.size(); i++) {
+            atomVariables[i] = new BitSet();
+            for (Term term : body.get(i).getTerms()) {
+                if (term.isVariable()) {
+                    atomVariables[i].set(internVariable(term.getValue()));
+                }
+            }
+        }
+        for (Term term : head.getTerms()) {
+            if (term.isVariable()) {
+                internVariable(term.getValue());
+            }
+        }
+    }
+
+    private int internVariable(String variable) {
+        Integer id = variableIds.get(variable);
+        if (id == null) {
+            id = variableNames.size();
+            variableIds.put(variable, id);
+            variableNames.add(variable);
+        }
+        return id;
     }
 
     public Atom getHead() {
@@ -112,6 +134,47 @@ class ConjunctiveQuery {
         return body;
     }
 
+    // Variables of the answer tuples: the head's variables, or every body variable
+    // (in order of appearance) when the head has none, i.e. Answer() is enumerated as the full join
+    public List<String> getAnswerVariables() {
+        Set<String> variables = new LinkedHashSet<>();
+        for (Term term : head.getTerms()) {
+            if (term.isVariable()) {
+                variables.add(term.getValue());
+            }
+        }
+        if (variables.isEmpty()) {
+            for (Atom atom : body) {
+                for (Term term : atom.getTerms()) {
+                    if (term.isVariable()) {
+                        variables.add(term.getValue());
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(variables);
+    }
+
+    // Variables a scan has to produce: the answer variables and the join variables (those shared by several atoms)
+    public Set<String> getRequiredVariables() {
+        Set<String> required = new HashSet<>(getAnswerVariables());
+        Set<String> seen = new HashSet<>();
+        for (Atom atom : body) {
+            Set<String> atomVariables = new HashSet<>();
+            for (Term term : atom.getTerms()) {
+                if (term.isVariable()) {
+                    atomVariables.add(term.getValue());
+                }
+            }
+            for (String variable : atomVariables) {
+                if (!seen.add(variable)) {
+                    required.add(variable);
+                }
+            }
+        }
+        return required;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -126,37 +189,49 @@ class ConjunctiveQuery {
     }
 
     public HyperGraph buildHyperGraph() {
-        HyperGraph hyperGraph = new HyperGraph();
+        HyperGraph hyperGraph = new HyperGraph(variableIds, variableNames);
 
-        // Add hyperedges for body atoms
-        for (Atom atom : body) {
-            Set<String> hyperedge = new HashSet<>();
-            for (Term term : atom.getTerms()) {
-                if (term.isVariable()) {
-                    hyperedge.add(term.getValue());
-                }
-            }
-
-            hyperGraph.addHyper(atom.getRelationName() , hyperedge);
+        // Add hyperedges for body atoms, as bitsets over the interned variable ids
+        for (int i = 0; i < body.size(); i++) {
+            hyperGraph.addHyper(body.get(i).getRelationName(), atomVariables[i], body.get(i));
         }
 
         return hyperGraph;
     }
 }
 class HyperEdge {
-    private Set<String> nodes;
+    private Set<String> nodes;          // variable names, only built when asked for
+    private BitSet variables;           // interned variable ids
+    private List<String> variableNames; // id -> name, shared by the whole hypergraph
     private String name;
+    private Atom atom;
 
-    HyperEdge(String name , Set<String> nodes){
+    HyperEdge(String name , BitSet variables, List<String> variableNames, Atom atom){
         this.name = name ;
-        this.nodes = nodes;
+        this.variables = variables;
+        this.variableNames = variableNames;
+        this.atom = atom;
     }
     public String getName(){
         return this.name;
     }
     public Set<String> getNodes(){
+        if (this.nodes == null) {
+            Set<String> names = new HashSet<>();
+            for (int v = variables.nextSetBit(0); v >= 0; v = variables.nextSetBit(v + 1)) {
+                names.add(variableNames.get(v));
+            }
+            this.nodes = names;
+        }
         return this.nodes;
     }
+    public BitSet getVariables(){
+        return this.variables;
+    }
+    // Body atom this edge comes from (terms in column order, constants included)
+    public Atom getAtom(){
+        return this.atom;
+    }
 
 }
 class HyperGraph {
@@ -165,14 +240,49 @@ class HyperGraph {
 
     private List<HyperEdge> hyperEdges;
 
+    private Map<String, Integer> variableIds;
+    private List<String> variableNames;
+
+    // Reused by the ear checks so they do not allocate
+    private final BitSet scratch = new BitSet();
+
+    // isAcyclic() traces every GYO step on stdout when this is turned on
+    private boolean verbose = false;
+
     public HyperGraph() {
+        this(new HashMap<>(), new ArrayList<>());
+    }
+
+    HyperGraph(Map<String, Integer> variableIds, List<String> variableNames) {
         this.hyperEdges = new ArrayList<>();
+        this.variableIds = variableIds;
+        this.variableNames = variableNames;
     }
 
+    public void addHyper(String name , Set<String> nodes){
+        BitSet variables = new BitSet();
+        for (String node : nodes) {
+            Integer id = variableIds.get(node);
+            if (id == null) {
+                id = variableNames.size();
+                variableIds.put(node, id);
+                variableNames.add(node);
+            }
+            variables.set(id);
+        }
+        this.hyperEdges.add(new HyperEdge(name , variables, variableNames, null));
+    }
 
+    public void addHyper(String name , BitSet variables, Atom atom){
+        this.hyperEdges.add(new HyperEdge(name , variables, variableNames, atom));
+    }
 
-    public void addHyper(String name , Set<String> nodes){
-        this.hyperEdges.add(new HyperEdge(name , nodes));
+    public int getVariableCount(){
+        return variableNames.size();
+    }
+
+    public List<String> getVariableNames(){
+        return variableNames;
     }
 
     public void printHyperGraph() {
@@ -190,67 +300,88 @@ class HyperGraph {
         return joinTree;
     }
 
+    public void setVerbose(boolean verbose){
+        this.verbose = verbose;
+    }
+
+    // Linear-time alternative to the GYO loop of isAcyclic(), see MaximumCardinalitySearch
+    public boolean isAcyclicMCS() {
+        JoinTree tree = MaximumCardinalitySearch.joinTree(this.hyperEdges, variableNames);
+        if (tree == null) {
+            return false;
+        }
+        this.joinTree = tree;
+        return true;
+    }
+
 
 
     // Check if a set is an ear in the hypergraph
-    private boolean isEar(Set<String> possibleEar,Set<String> possibleWitness, Set<HyperEdge> hypergraph) {
+    private boolean isEar(HyperEdge possibleEar, HyperEdge possibleWitness, Set<HyperEdge> hypergraph) {
 
         if (isExclusive(possibleEar, hypergraph)) {
             return true;
         }
-        if (possibleEar.equals(possibleWitness)) return false;
-        for (String vertice : possibleEar){
-            if (!possibleWitness.contains(vertice)) {
-                for (HyperEdge hyperedge : hypergraph) {
-                    if (hyperedge.getNodes() != possibleEar && hyperedge.getNodes() != possibleWitness && hyperedge.getNodes().contains(vertice)) return false;
-                }
-            }
+        if (possibleEar == possibleWitness) return false;
+        // vertices of the ear the witness does not cover must not appear anywhere else
+        scratch.clear();
+        scratch.or(possibleEar.getVariables());
+        scratch.andNot(possibleWitness.getVariables());
+        if (scratch.isEmpty()) return true;
+        for (HyperEdge hyperedge : hypergraph) {
+            if (hyperedge != possibleEar && hyperedge != possibleWitness && hyperedge.getVariables().intersects(scratch)) return false;
         }
         return true;
     }
 
     // Check if an edge's nodes are exclusive to that node
-    private boolean isExclusive(Set<String> hyperedge, Set<HyperEdge> hypergraph){
-        for (String node : hyperedge){
-            for (HyperEdge otherEdge : hypergraph){
-                if (!otherEdge.getNodes().equals(hyperedge) && otherEdge.getNodes().contains(node)) return false;
-            }
+    private boolean isExclusive(HyperEdge hyperedge, Set<HyperEdge> hypergraph){
+        for (HyperEdge otherEdge : hypergraph){
+            if (!otherEdge.getVariables().equals(hyperedge.getVariables()) && otherEdge.getVariables().intersects(hyperedge.getVariables())) return false;
         }
         return true ;
     }
 
+    // Check if the variables of one edge are all in another
+    private boolean containsAll(HyperEdge container, HyperEdge contained){
+        scratch.clear();
+        scratch.or(contained.getVariables());
+        scratch.andNot(container.getVariables());
+        return scratch.isEmpty();
+    }
+
     public boolean isAcyclic() {
-        Set<HyperEdge> gyoReduction = new HashSet<>(this.hyperEdges);
+        Set<HyperEdge> gyoReduction = new LinkedHashSet<>(this.hyperEdges);
+        // Every removed ear remembers the witness it was removed for: those links are the join tree
+        Map<HyperEdge, HyperEdge> witnessOf = new LinkedHashMap<>();
+        if (gyoReduction.size() <= 1) {
+            this.joinTree = buildJoinTree(gyoReduction, witnessOf);
+            return true;
+        }
         boolean done = false;
-        JoinTree tree = new JoinTree();
         while (!done){
             Iterator<HyperEdge> iterator = gyoReduction.iterator();
             int initialSize = gyoReduction.size();
             while (iterator.hasNext()) {
                 HyperEdge possibleEar = iterator.next();
-                System.out.println(possibleEar.getName());
+                if (verbose) System.out.println(possibleEar.getName());
 
                 boolean removable = false;
                 for (HyperEdge possibleWitness : gyoReduction){
-                    if (isEar(possibleEar.getNodes() ,possibleWitness.getNodes() , gyoReduction)){
+                    if (isEar(possibleEar ,possibleWitness , gyoReduction)){
                         removable = true;
-
-                        if(tree.getRoot() == null) {
-                            JoinTreeNode newlyAdded = new JoinTreeNode(possibleWitness.getNodes(), null,possibleWitness.getName());
-                            tree.setRoot(newlyAdded);
-                            tree.addChild(possibleWitness.getNodes(), possibleEar.getNodes() , possibleWitness.getName());
-
-                        }
-                        else {
-                            JoinTreeNode parentNode = tree.findNodeByAtom(possibleEar.getNodes(), tree.getRoot());
-                            if (parentNode != null){
-                                tree.addChild(possibleEar.getNodes(), possibleWitness.getNodes() , possibleEar.getName());
+                        HyperEdge witness = possibleWitness;
+                        if (witness == possibleEar || isExclusive(possibleEar, gyoReduction)) {
+                            // exclusive ear: hang it under an identical edge if there is one, else under any other edge
+                            witness = possibleEar;
+                            for (HyperEdge other : gyoReduction) {
+                                if (other != possibleEar && (witness == possibleEar || containsAll(other, possibleEar))) {
+                                    witness = other;
+                                }
                             }
-                            else tree.addChild(possibleWitness.getNodes(), possibleEar.getNodes() , possibleWitness.getName());
-
-                            System.out.println(possibleWitness.getName());
                         }
-                        tree.printJoinTree();
+                        witnessOf.put(possibleEar, witness);
+                        if (verbose) System.out.println(witness.getName());
                         break;
 
                     }
@@ -258,7 +389,11 @@ class HyperGraph {
                 if (removable) {
                     iterator.remove();
                     gyoReduction.remove(possibleEar);
-                    if (gyoReduction.size() == 1 ) {this.joinTree = tree; return true;}
+                    if (gyoReduction.size() == 1 ) {
+                        this.joinTree = buildJoinTree(gyoReduction, witnessOf);
+                        if (verbose) this.joinTree.printJoinTree();
+                        return true;
+                    }
                     break;  // break the iterated loop
                 }
 
@@ -270,6 +405,27 @@ class HyperGraph {
 
     }
 
+    // The last remaining edge is the root, every ear becomes a child of its witness
+    private JoinTree buildJoinTree(Set<HyperEdge> remaining, Map<HyperEdge, HyperEdge> witnessOf) {
+        JoinTree tree = new JoinTree();
+        if (remaining.isEmpty()) {
+            return tree;
+        }
+        Map<HyperEdge, JoinTreeNode> nodes = new HashMap<>();
+        for (HyperEdge edge : this.hyperEdges) {
+            JoinTreeNode node = new JoinTreeNode(edge.getNodes(), null, edge.getName());
+            node.queryAtom = edge.getAtom();
+            node.variables = edge.getVariables();
+            node.variableNames = variableNames;
+            nodes.put(edge, node);
+        }
+        tree.setRoot(nodes.get(remaining.iterator().next()));
+        for (Map.Entry<HyperEdge, HyperEdge> link : witnessOf.entrySet()) {
+            tree.attach(nodes.get(link.getValue()), nodes.get(link.getKey()));
+        }
+        return tree;
+    }
+
 
 }
 
@@ -277,8 +433,13 @@ class HyperGraph {
 
 class JoinTreeNode {
     Set<String> atom;
+    BitSet variables;            // same variables as atom, as interned ids (null for hand-built nodes)
+    List<String> variableNames;  // id -> name for the bits above
+    Atom queryAtom;     // the body atom behind this node, with its constants
     String name;
-    Set<JoinTreeNode> children = new HashSet<>();
+    String alias;       // unique within the tree: the name, suffixed when the relation occurs more than once
+    int id = -1;        // position in the tree's node index, set when the node is added
+    List<JoinTreeNode> children = new ArrayList<>();
     JoinTreeNode parent;
 
     JoinTreeNode(Set<String> atom , JoinTreeNode parent , String name) {
@@ -292,12 +453,27 @@ class JoinTreeNode {
     }
 }
 
+// Nodes are indexed by id (the order they were added in), by body atom (identity) and by alias, so
+// building the tree and looking nodes up never searches it. Two atoms over the same variables, such
+// as the two sides of a self-join, are distinct nodes with distinct aliases.
 class JoinTree {
     JoinTreeNode root;
     int size = 0 ;
 
+    private final List<JoinTreeNode> nodes = new ArrayList<>();
+    private final Map<Atom, JoinTreeNode> nodesByAtom = new IdentityHashMap<>();
+    private final Map<String, JoinTreeNode> nodesByAlias = new HashMap<>();
+    private final Map<Set<String>, JoinTreeNode> nodesByVariables = new HashMap<>();  // first node over each variable set
+
+    // Adjacency as arrays over the node ids, rebuilt on demand after the tree changes
+    private int[] parentIds;
+    private int[] childOffsets;  // children of node i are childIds[childOffsets[i] .. childOffsets[i + 1])
+    private int[] childIds;
+    private int[] preOrder;
+    private int reshapes = 0;    // bumped whenever the root or the order of some children changes
+
     JoinTree(Set<String> rootAtom , String name) {
-        this.root = new JoinTreeNode(rootAtom , null , name);
+        setRoot(new JoinTreeNode(rootAtom , null , name));
     }
 
     JoinTree() {
@@ -310,35 +486,183 @@ class JoinTree {
     public int getSize() { return this.size; }
 
     public void setRoot(JoinTreeNode root){
-        this.root = root; this.size = 1 ;
+        this.root = root;
+        register(root);
+        this.size = nodes.size();
     }
-    // Traverse the tree to find the parent and add the child
-    void addChild(Set<String> parentAtom, Set<String> childAtom , String parentName) {
-        JoinTreeNode parentNode = findNodeByAtom(parentAtom, root);
-        JoinTreeNode childNode = new JoinTreeNode(childAtom , parentNode , parentName);
-        parentNode.children.add(childNode);
-        this.size++ ;
+    // Add a child under the first node over parentAtom; use the node overload when variable sets repeat
+    void addChild(Set<String> parentAtom, Set<String> childAtom , String childName) {
+        addChild(parentAtom, childAtom, childName, null);
     }
 
-    // Helper method to find a node by atom content in the tree
-    public JoinTreeNode findNodeByAtom(Set<String> targetAtom, JoinTreeNode currentNode) {
-        if (currentNode == null) {
-            return null;  // Node not found
+    void addChild(Set<String> parentAtom, Set<String> childAtom , String childName, Atom childQueryAtom) {
+        JoinTreeNode parentNode = findNodeByAtom(parentAtom);
+        if (parentNode == null) {
+            throw new IllegalArgumentException("No join tree node over " + parentAtom);
         }
+        addChild(parentNode, childAtom, childName, childQueryAtom);
+    }
+
+    JoinTreeNode addChild(JoinTreeNode parentNode, Set<String> childAtom , String childName, Atom childQueryAtom) {
+        JoinTreeNode childNode = new JoinTreeNode(childAtom , null , childName);
+        childNode.queryAtom = childQueryAtom;
+        attach(parentNode, childNode);
+        return childNode;
+    }
+
+    // Link an already built node under its parent, without searching the tree
+    void attach(JoinTreeNode parentNode, JoinTreeNode childNode) {
+        childNode.parent = parentNode;
+        parentNode.children.add(childNode);
+        register(childNode);
+        this.size = nodes.size();
+    }
 
-        if (currentNode.atom.equals(targetAtom)) {
-            return currentNode;  // Node found
+    private void register(JoinTreeNode node) {
+        if (node.id >= 0 && node.id < nodes.size() && nodes.get(node.id) == node) {
+            return;
+        }
+        node.id = nodes.size();
+        nodes.add(node);
+        String alias = node.name;
+        for (int occurrence = 2; nodesByAlias.containsKey(alias); occurrence++) {
+            alias = node.name + "_" + occurrence;
+        }
+        node.alias = alias;
+        nodesByAlias.put(alias, node);
+        if (node.queryAtom != null) {
+            nodesByAtom.put(node.queryAtom, node);
         }
+        if (node.atom != null) {
+            nodesByVariables.putIfAbsent(node.atom, node);
+        }
+        parentIds = null;
+    }
 
-        // Recursively search in children
-        for (JoinTreeNode child : currentNode.children) {
-            JoinTreeNode result = findNodeByAtom(targetAtom, child);
-            if (result != null) {
-                return result;  // Node found in the subtree
+    // Makes another node the root: only the parent links on the path between the two roots flip, so the
+    // tree is still a join tree of the same atoms
+    void reroot(JoinTreeNode newRoot) {
+        if (newRoot == root) {
+            return;
+        }
+        JoinTreeNode previous = null;
+        JoinTreeNode node = newRoot;
+        while (node != null) {
+            JoinTreeNode parent = node.parent;
+            if (parent != null) {
+                parent.children.remove(node);
+            }
+            node.parent = previous;
+            if (previous != null) {
+                previous.children.add(node);
             }
+            previous = node;
+            node = parent;
+        }
+        this.root = newRoot;
+        reshapes++;
+        parentIds = null;
+    }
+
+    // Sorts the children of every node; returns whether any order changed
+    boolean sortChildren(Comparator<JoinTreeNode> order) {
+        boolean changed = false;
+        for (JoinTreeNode node : nodes) {
+            List<JoinTreeNode> before = new ArrayList<>(node.children);
+            node.children.sort(order);
+            changed |= !before.equals(node.children);
+        }
+        if (changed) {
+            reshapes++;
+            parentIds = null;
         }
+        return changed;
+    }
+
+    // Changes every time the tree is re-rooted or its children reordered
+    int getReshapeCount() {
+        return reshapes;
+    }
 
-        return null;  // Node not found
+    // The first node added over exactly these variables, null if there is none
+    public JoinTreeNode findNodeByAtom(Set<String> targetAtom) {
+        return nodesByVariables.get(targetAtom);
+    }
+
+    public JoinTreeNode findNode(Atom queryAtom) {
+        return nodesByAtom.get(queryAtom);
+    }
+
+    public JoinTreeNode findNode(String alias) {
+        return nodesByAlias.get(alias);
+    }
+
+    public JoinTreeNode getNode(int id) {
+        return nodes.get(id);
+    }
+
+    public List<JoinTreeNode> getNodes() {
+        return Collections.unmodifiableList(nodes);
+    }
+
+    // Parent id of every node id, -1 for the root
+    public int[] parentIds() {
+        buildAdjacency();
+        return parentIds;
+    }
+
+    public int[] childOffsets() {
+        buildAdjacency();
+        return childOffsets;
+    }
+
+    public int[] childIds() {
+        buildAdjacency();
+        return childIds;
+    }
+
+    // Node ids in pre order from the root: every parent comes before its children
+    public int[] preOrder() {
+        buildAdjacency();
+        return preOrder;
+    }
+
+    private void buildAdjacency() {
+        if (parentIds != null) {
+            return;
+        }
+        int n = nodes.size();
+        int[] parents = new int[n];
+        int[] offsets = new int[n + 1];
+        int[] children = new int[Math.max(0, n - 1)];
+        for (int i = 0; i < n; i++) {
+            JoinTreeNode node = nodes.get(i);
+            parents[i] = node.parent == null ? -1 : node.parent.id;
+            offsets[i + 1] = offsets[i] + node.children.size();
+            int k = offsets[i];
+            for (JoinTreeNode child : node.children) {
+                children[k++] = child.id;
+            }
+        }
+        // Explicit stack: deep trees (long chains of atoms) must not overflow the call stack
+        int[] order = new int[n];
+        int count = 0;
+        if (root != null) {
+            int[] stack = new int[n];
+            int top = 0;
+            stack[top++] = root.id;
+            while (top > 0) {
+                int node = stack[--top];
+                order[count++] = node;
+                for (int k = offsets[node + 1] - 1; k >= offsets[node]; k--) {
+                    stack[top++] = children[k];
+                }
+            }
+        }
+        this.childOffsets = offsets;
+        this.childIds = children;
+        this.preOrder = count == n ? order : Arrays.copyOf(order, count);
+        this.parentIds = parents;
     }
 
     void printJoinTree() {
@@ -366,277 +690,669 @@ class JoinTree {
 
 
 public class Main {
-    private static List<VectorSchemaRoot> loadCsvFile(String fileName) {
-        String uri = "file:/home/zak/IdeaProjects/Apache_Arrow_proj/src/main/resources/data/" + fileName;
-
-        ScanOptions options = new ScanOptions(/*batchSize*/ 32768);
-        try (
-                BufferAllocator allocator = new RootAllocator();
-                DatasetFactory datasetFactory = new FileSystemDatasetFactory(
-                        allocator, NativeMemoryPool.getDefault(),
-                        FileFormat.CSV, uri);
-                Dataset dataset = datasetFactory.finish();
-                Scanner scanner = dataset.newScan(options);
-                ArrowReader reader = scanner.scanBatches()
-        ) {
-            List<VectorSchemaRoot> combinedRoot = new ArrayList<>();
-
-            while (reader.loadNextBatch()) {
-                try (VectorSchemaRoot root = reader.getVectorSchemaRoot()) {
-                    combinedRoot.add(root);
-                }
+    // Yannakakis full reducer: a bottom-up semi-join pass (post order) followed by a top-down one
+    // (pre order). Relations flow between the stages as Arrow batches, nothing is written to disk.
+    // Atoms are scanned one after the other (the catalog is not thread safe); the semi-joins run on
+    // the common ForkJoinPool unless parallelReducer is off. The tree may be re-rooted and its children
+    // reordered on the way (see JoinOrder): answers are enumerated over the tree as it is afterwards.
+    public static ReducedDatabase fullReducer(JoinTree tree, Catalog catalog, Set<String> requiredVariables) {
+        return fullReducer(tree, catalog, requiredVariables, catalog.getAllocator());
+    }
+
+    // Same, accounted under the given (query) allocator: the reduced relations live in a "reducer"
+    // child of it, every semi-join's temporary structures in a child of that. When the budget runs out
+    // the partial database is released before the OutOfMemoryException goes up.
+    public static ReducedDatabase fullReducer(JoinTree tree, Catalog catalog, Set<String> requiredVariables,
+                                              BufferAllocator allocator) {
+        return fullReducer(tree, postOrderTraversal(tree), preOrderTraversal(tree), catalog, requiredVariables, allocator);
+    }
+
+    // Same, with the traversal orders and key columns a compiled (possibly cached) plan already holds
+    public static ReducedDatabase fullReducer(QueryPlan plan, Catalog catalog, BufferAllocator allocator) {
+        return fullReducer(plan.getJoinTree(), plan.getSemiJoinsPostOrder(), plan.getSemiJoinsPreOrder(), catalog,
+                plan.getRequiredVariables(), allocator);
+    }
+
+    private static ReducedDatabase fullReducer(JoinTree tree, List<PairChildParent> semiJoinsPostOrder,
+                                               List<PairChildParent> semiJoinsPreOrder, Catalog catalog,
+                                               Set<String> requiredVariables, BufferAllocator allocator) {
+        ReducedDatabase database = new ReducedDatabase(Allocators.newOperator(allocator, "reducer"));
+        try {
+            reduce(tree, semiJoinsPostOrder, semiJoinsPreOrder, catalog, requiredVariables, database);
+        } catch (RuntimeException e) {
+            try {
+                database.close();
+            } catch (RuntimeException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        return database;
+    }
+
+    // semiJoinsPostOrder runs first (bottom-up), then semiJoinsPreOrder (top-down)
+    private static void reduce(JoinTree tree, List<PairChildParent> semiJoinsPostOrder, List<PairChildParent> semiJoinsPreOrder,
+                               Catalog catalog, Set<String> requiredVariables, ReducedDatabase database) {
+        if (tree.getRoot() == null) {
+            return;
+        }
+
+        // Every node starts from the scan of its atom: constants are applied before any semi join
+        scanAtom(database, tree.getRoot(), catalog, requiredVariables);
+        for (PairChildParent pair : semiJoinsPostOrder) {
+            scanAtom(database, pair.child, catalog, requiredVariables);
+        }
+        // The scans give the exact size of every relation: root the tree at the largest one and join
+        // the smallest children first (--fixed-join-tree keeps the tree as planned)
+        if (reorderJoinTree && JoinOrder.optimize(tree, database::getRowCount)) {
+            semiJoinsPostOrder = postOrderTraversal(tree);
+            semiJoinsPreOrder = preOrderTraversal(tree);
+        }
+        // String join keys become int codes shared by all the relations (--no-dictionary keeps the strings)
+        if (useKeyDictionary) {
+            KeyDictionary.encodeJoinVariables(tree, database, database.getAllocator());
+        }
+
+        if (parallelReducer && tree.getSize() > 2) {
+            // Independent subtrees are reduced concurrently, a parent still waits for all its children
+            ParallelReducer.reduce(tree, database, ForkJoinPool.commonPool());
+        } else {
+            // Bottom-up: every parent keeps only the tuples that join with each of its children
+            for (PairChildParent pair : semiJoinsPostOrder) {
+                reduceBy(database, pair.parent, pair.child, pair.commonColumns);
+            }
+            // Top-down: every child keeps only the tuples that join with its (already reduced) parent
+            for (PairChildParent pair : semiJoinsPreOrder) {
+                reduceBy(database, pair.child, pair.parent, pair.commonColumns);
             }
-            return combinedRoot;
-            // return the single VectorSchemaRoot combining the whole thing
-        } catch (Exception e) {
-            e.printStackTrace();
         }
+        // The semi-joins only narrowed selection vectors: columns are gathered here, once per relation
+        database.materialize();
+    }
 
+    // One semi-join step of the reducer: target keeps the live rows that join with a live row of other
+    static void reduceBy(ReducedDatabase database, JoinTreeNode target, JoinTreeNode other, List<String> joinColumnNames) {
+        try (BufferAllocator semiJoin = Allocators.newOperator(database.getAllocator(), "semi-join " + target.alias + " by " + other.alias)) {
+            database.select(target, semiJoinSelection(database.get(target), database.selection(target),
+                    database.get(other), database.selection(other), joinColumnNames, semiJoin,
+                    database.bloomMetrics(), database.spillMetrics()));
+        }
+    }
 
-        return null; // Return null in case of an error or if no data is loaded
+    // Only the columns the atom needs are read from the catalog (projection pushdown)
+    private static void scanAtom(ReducedDatabase database, JoinTreeNode node, Catalog catalog, Set<String> requiredVariables) {
+        if (node.queryAtom == null) {
+            throw new IllegalArgumentException("Join tree node " + node.name + " is not linked to a body atom");
+        }
+        List<String> columnNames = catalog.getColumnNames(node.name);
+        List<String> columns = AtomScan.requiredColumns(node.queryAtom, columnNames, requiredVariables);
+        List<VectorSchemaRoot> relation = catalog.get(node.name, columns);
+        int[][] selection = new int[relation.size()][];
+        List<VectorSchemaRoot> scanned = AtomScan.scan(node.queryAtom, columnNames, relation, requiredVariables,
+                database.getAllocator(), selection);
+        database.replace(node, scanned, selection);
     }
 
+    // Relations produced by the full reducer, one per join tree node, with one column per variable.
+    // The batches belong to this object: they are released as soon as they are replaced, or on close().
+    // While the reducer runs, the batches stay as they were scanned and every semi-join only narrows a
+    // selection vector per batch (live row ids, null for all rows); materialize() then gathers the live
+    // rows once. get() returns gathered batches only after materialize().
+    // Join variables encoded by KeyDictionary hold int codes; their dictionaries are owned here too.
+    // Everything is allocated from the database's own allocator, closed last.
+    // Reducer tasks on different nodes read and replace relations concurrently
+    static class ReducedDatabase implements AutoCloseable {
+        private final BufferAllocator allocator;
+        private final Map<JoinTreeNode, List<VectorSchemaRoot>> relations = new LinkedHashMap<>();
+        private final Map<JoinTreeNode, int[][]> selections = new HashMap<>();
+        private final Map<String, VarCharVector> dictionaries = new HashMap<>();
+        private final BloomFilter.Metrics bloomMetrics = new BloomFilter.Metrics();
+        private final GraceSemiJoin.Metrics spillMetrics = new GraceSemiJoin.Metrics();
+
+        ReducedDatabase(BufferAllocator allocator) {
+            this.allocator = allocator;
+        }
 
-    public static void fullReducer(JoinTree tree) {
-        List<PairChildParent> semiJoinsPostOrder = postOrderTraversal(tree.getRoot());  // post order semi joins first
-        //List<PairChildParent> semiJoinsPreOrder = preOrderTraversal(tree.getRoot());         // pre order semi joins
+        BufferAllocator getAllocator() {
+            return allocator;
+        }
 
-        for (PairChildParent pair : semiJoinsPostOrder){
-            System.out.println("ICII");
-            // create empty csv file : name = old_name + '+'
-            String path = "src/main/resources/data/" + pair.parent.name.toLowerCase() + "+.csv";
-            String uri_left = "file:/home/zak/IdeaProjects/Apache_Arrow_proj/src/main/resources/data/" + pair.parent.name.toLowerCase() + ".csv";
-            String uri_right = "file:/home/zak/IdeaProjects/Apache_Arrow_proj/src/main/resources/data/" + pair.child.name.toLowerCase() +".csv";
-            try {
-                // Create an empty file or overwrite if it already exists
-                Files.write(Path.of(path.toLowerCase()), "".getBytes(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-                System.out.println("Empty CSV file created successfully.");
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            try(
-                BufferAllocator allocator_left = new RootAllocator();
-                DatasetFactory datasetFactory_left = new FileSystemDatasetFactory(allocator_left, NativeMemoryPool.getDefault(), FileFormat.CSV,uri_left);
-                Dataset dataset_left = datasetFactory_left.finish();
-                Scanner scanner_left = dataset_left.newScan(new ScanOptions(32768));
-                ArrowReader reader_left = scanner_left.scanBatches()
-            ){
-                while (reader_left.loadNextBatch()) {
-                    try (VectorSchemaRoot root_left = reader_left.getVectorSchemaRoot()) {
-                        // First batch on first file is loaded
-                        try(
-                                BufferAllocator allocator_right = new RootAllocator();
-                                DatasetFactory datasetFactory_right = new FileSystemDatasetFactory(allocator_right, NativeMemoryPool.getDefault(), FileFormat.CSV, uri_right);
-                                Dataset dataset_right = datasetFactory_right.finish();
-                                Scanner scanner_right = dataset_right.newScan(new ScanOptions(32768));
-                                ArrowReader reader_right = scanner_right.scanBatches()
-                        ){
-                            while (reader_right.loadNextBatch()) {
-                                try (VectorSchemaRoot root_right = reader_right.getVectorSchemaRoot()) {
-                                    // First batch on second file is loaded
-                                    List<String> common_cols = findCommonColumns(root_left , root_right);
-                                    try(VectorSchemaRoot result = semiJoin(root_left , root_right, common_cols.get(0))){            // SemiJoined columns is only the first common one
-                                        writeVSR_to_CSV(path.toLowerCase() , result);
-                                    }
+        synchronized List<VectorSchemaRoot> get(JoinTreeNode node) {
+            return relations.get(node);
+        }
 
-                                }
-                            }
-                        }catch (Exception e ){
-                            e.printStackTrace();
-                        }
+        // Live rows of every batch of the node, null when every row is live
+        synchronized int[][] selection(JoinTreeNode node) {
+            return selections.get(node);
+        }
 
-                    }
+        Set<JoinTreeNode> nodes() {
+            return relations.keySet();
+        }
+
+        synchronized void addDictionary(String variable, VarCharVector dictionary) {
+            VarCharVector previous = dictionaries.put(variable, dictionary);
+            if (previous != null) {
+                previous.close();
+            }
+        }
+
+        // Strings of the codes of an encoded variable, null when the variable is not encoded
+        synchronized VarCharVector dictionary(String variable) {
+            return dictionaries.get(variable);
+        }
+
+        synchronized Map<String, VarCharVector> dictionaries() {
+            return dictionaries;
+        }
+
+        // Bloom filters built by the semi-joins of this reduction
+        BloomFilter.Metrics bloomMetrics() {
+            return bloomMetrics;
+        }
+
+        // Semi-joins of this reduction that spilled to disk
+        GraceSemiJoin.Metrics spillMetrics() {
+            return spillMetrics;
+        }
+
+        synchronized int getRowCount(JoinTreeNode node) {
+            int[][] selection = selections.get(node);
+            List<VectorSchemaRoot> batches = relations.get(node);
+            int rowCount = 0;
+            for (int b = 0; b < batches.size(); b++) {
+                rowCount += selection == null || selection[b] == null ? batches.get(b).getRowCount() : selection[b].length;
+            }
+            return rowCount;
+        }
+
+        void replace(JoinTreeNode node, List<VectorSchemaRoot> batches) {
+            replace(node, batches, null);
+        }
+
+        void replace(JoinTreeNode node, List<VectorSchemaRoot> batches, int[][] selection) {
+            List<VectorSchemaRoot> previous;
+            synchronized (this) {
+                previous = relations.put(node, batches);
+                selections.put(node, selection);
+            }
+            if (previous != null && previous != batches) {
+                previous.forEach(VectorSchemaRoot::close);
+            }
+        }
+
+        // Narrows the live rows of a node, the batches themselves are not touched
+        synchronized void select(JoinTreeNode node, int[][] selection) {
+            selections.put(node, selection);
+        }
+
+        // Gathers the live rows of every node into new batches, once; fully live batches are kept as they are.
+        // Runs of small batches are then concatenated, so the join hashes and scans contiguous columns.
+        void materialize() {
+            for (JoinTreeNode node : nodes()) {
+                int[][] selection = selection(node);
+                if (selection == null) {
+                    continue;
                 }
-                // update the pairs here
-                for (PairChildParent update_pair : semiJoinsPostOrder){
-                    if (update_pair.parent.name.equals(pair.parent.name)) {
-                        pair.parent.setName(pair.parent.name + "+");
+                List<VectorSchemaRoot> batches = get(node);
+                List<VectorSchemaRoot> gathered = new ArrayList<>();
+                try {
+                    for (int b = 0; b < batches.size(); b++) {
+                        gathered.add(selection[b] == null ? batches.get(b) : Main.select(batches.get(b), selection[b], allocator));
                     }
-                    else if(update_pair.child.name.equals(pair.parent.name)){
-                        pair.child.setName(pair.parent.name + "+");
+                    if (coalesceBatches) {
+                        gathered = Concatenation.coalesce(gathered, Catalog.BATCH_SIZE, allocator);
+                    }
+                } catch (RuntimeException e) {
+                    // Out of memory half way: drop the copies, the node keeps its batches and selection
+                    for (int b = 0; b < gathered.size(); b++) {
+                        if (selection[b] != null) {
+                            gathered.get(b).close();
+                        }
+                    }
+                    throw e;
+                }
+                synchronized (this) {
+                    relations.put(node, gathered);
+                    selections.put(node, null);
+                }
+                for (int b = 0; b < batches.size(); b++) {
+                    if (selection[b] != null) {
+                        batches.get(b).close();
                     }
                 }
-            }catch (Exception e ){
-                e.printStackTrace();
             }
         }
 
-        /*
-        // POST-ORDER TRAVERSAL SEMI JOINS HERE
-        for (PairChildParent pair: semiJoinsPostOrder){
-            for (VectorSchemaRoot leftSchema: database){
-                if (leftSchema.getSchema().toString().equals(pair.parent.name)){
-                    for (VectorSchemaRoot rightSchema : database){
-                        leftSchema = semiJoin(leftSchema , rightSchema , pair.commonColumn);
-                    }
-                }
+        @Override
+        public synchronized void close() {
+            for (List<VectorSchemaRoot> batches : relations.values()) {
+                batches.forEach(VectorSchemaRoot::close);
             }
+            relations.clear();
+            selections.clear();
+            dictionaries.values().forEach(VarCharVector::close);
+            dictionaries.clear();
+            allocator.close();
         }
-        */
     }
-    public static void writeVSR_to_CSV(String path_csv , VectorSchemaRoot vsr){
-        try (FileWriter csvWriter = new FileWriter(path_csv)) {
-            // Write header row
-            for (FieldVector fieldVector : vsr.getFieldVectors()) {
-                csvWriter.append(fieldVector.getField().getName());
-                csvWriter.append(",");
-            }
-            csvWriter.append("\n");
 
-            // Write data rows
-            int numRows = vsr.getRowCount();
-            System.out.println(numRows);
-            for (int rowIndex = 0; rowIndex < numRows; rowIndex++) {
-                for (FieldVector fieldVector : vsr.getFieldVectors()) {
-                    // Extract data from the vector
-                    String cellValue = extractCellValue(fieldVector, rowIndex);
+    // Semi-join over selection vectors: selection[b] lists the live rows of batch b in increasing order,
+    // null meaning every row (a null selection array means every row of every batch). Returns the
+    // selection of the left rows whose key occurs among the live right rows; no column is copied, the
+    // caller gathers the surviving rows once, when it needs them.
+    static int[][] semiJoinSelection(List<VectorSchemaRoot> leftBatches, int[][] leftSelection,
+                                     List<VectorSchemaRoot> rightBatches, int[][] rightSelection, List<String> joinColumnNames) {
+        return semiJoinSelection(leftBatches, leftSelection, rightBatches, rightSelection, joinColumnNames, null, null, null);
+    }
 
-                    // Write the cell value to the CSV file
-                    csvWriter.append(cellValue);
-                    csvWriter.append(",");
+    // Same, with the hash table allocated from the given allocator (null: the one of the right side's vectors),
+    // and the Bloom filters and spills counted in the given metrics (null: not counted)
+    static int[][] semiJoinSelection(List<VectorSchemaRoot> leftBatches, int[][] leftSelection,
+                                     List<VectorSchemaRoot> rightBatches, int[][] rightSelection, List<String> joinColumnNames,
+                                     BufferAllocator allocator, BloomFilter.Metrics bloomMetrics,
+                                     GraceSemiJoin.Metrics spillMetrics) {
+        if (useHashSemiJoin && !joinColumnNames.isEmpty()) {
+            boolean tableKeys = !rightBatches.isEmpty() && ArrowHashTable.supports(leftBatches, rightBatches, joinColumnNames);
+            BufferAllocator tableAllocator = !tableKeys ? null : allocator != null ? allocator
+                    : rightBatches.get(0).getVector(joinColumnNames.get(0)).getAllocator();
+            int buildRows = selectedCount(rightBatches, rightSelection);
+            if (tableKeys && useGraceSemiJoin) {
+                // Over budget (the configured one, or what the query has left): partition both sides to disk.
+                // The heap key set (--heap-hash-table) is larger than the off-heap table, so it spills too.
+                long budget = Math.min(semiJoinMemoryBudget, tableAllocator.getHeadroom() / 2);
+                if (ArrowHashTable.bytesFor(buildRows) > budget) {
+                    return GraceSemiJoin.selection(leftBatches, leftSelection, rightBatches, rightSelection, joinColumnNames,
+                            GraceSemiJoin.partitionCount(buildRows, budget), budget, tableAllocator, spillMetrics);
                 }
-                csvWriter.append("\n");
             }
-
-            System.out.println("Data written to the CSV file successfully.");
-        } catch (IOException e) {
-            e.printStackTrace();
+            BloomFilter bloom = bloomFilterFor(leftBatches, leftSelection, rightBatches, rightSelection, bloomMetrics);
+            if (useArrowHashTable && tableKeys) {
+                // Off-heap table on the raw buffers: nothing is allocated per row, on either side
+                try (ArrowHashTable keys = ArrowHashTable.keySet(rightBatches, rightSelection, joinColumnNames,
+                        buildRows, tableAllocator)) {
+                    if (bloom != null) {
+                        addKeys(bloom, rightBatches, rightSelection, joinColumnNames);
+                    }
+                    return probe(leftBatches, leftSelection, (batch, rows, from, to) ->
+                            probeHashTable(ArrowHashTable.Keys.of(batch, joinColumnNames), joinColumns(batch, joinColumnNames),
+                                    rows, from, to, keys, bloom));
+                }
+            }
+            Set<CompositeKey> keys = buildKeySet(rightBatches, rightSelection, joinColumnNames, bloom);
+            return probe(leftBatches, leftSelection, (batch, rows, from, to) ->
+                    probeKeySet(joinColumns(batch, joinColumnNames), rows, from, to, keys, bloom));
         }
-    }
-    private static String extractCellValue(FieldVector fieldVector, int rowIndex) {
-        // Replace this with the appropriate logic to extract the cell value based on the vector type
-        if (fieldVector instanceof VarCharVector) {
-            VarCharVector varCharVector = (VarCharVector) fieldVector;
-            return varCharVector.getObject(rowIndex).toString();
-        } else {
-            // Handle other vector types accordingly
-            return "N/A";
+        // Nested loops, kept for comparison; with no shared variable every live left row survives as long
+        // as some right row is live
+        int[][] matches = new int[leftBatches.size()][];
+        for (int b = 0; b < leftBatches.size(); b++) {
+            VectorSchemaRoot leftTable = leftBatches.get(b);
+            int[] rows = rowsOf(leftSelection, b);
+            ValueVector[] leftColumns = joinColumns(leftTable, joinColumnNames);
+            int liveCount = rows == null ? leftTable.getRowCount() : rows.length;
+            int[] kept = new int[liveCount];
+            int keptCount = 0;
+            for (int k = 0; k < liveCount; k++) {
+                int row = rows == null ? k : rows[k];
+                if (matchesAnyRow(leftColumns, row, rightBatches, rightSelection, joinColumnNames)) {
+                    kept[keptCount++] = row;
+                }
+            }
+            matches[b] = narrowed(kept, keptCount, rows, leftTable.getRowCount());
         }
+        return matches;
     }
 
+    private static boolean matchesAnyRow(ValueVector[] leftColumns, int leftRow, List<VectorSchemaRoot> rightBatches,
+                                         int[][] rightSelection, List<String> joinColumnNames) {
+        for (int b = 0; b < rightBatches.size(); b++) {
+            VectorSchemaRoot rightTable = rightBatches.get(b);
+            int[] rows = rowsOf(rightSelection, b);
+            ValueVector[] rightColumns = joinColumns(rightTable, joinColumnNames);
+            int liveCount = rows == null ? rightTable.getRowCount() : rows.length;
+            for (int k = 0; k < liveCount; k++) {
+                if (CompositeKey.rowEquals(leftColumns, leftRow, rightColumns, rows == null ? k : rows[k])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
 
-    private static List<String> findCommonColumns(VectorSchemaRoot leftTable, VectorSchemaRoot rightTable) {
-        // Find common columns between the two tables based on their schemas
-        List<Field> leftFields = leftTable.getSchema().getFields();
-        List<Field> rightFields = rightTable.getSchema().getFields();
-
-        List<String> commonColumns = new ArrayList<>();
-        for (Field leftField : leftFields) {
-            for (Field rightField : rightFields) {
-                if (leftField.getName().equals(rightField.getName())) {
-                    commonColumns.add(leftField.getName());
-                    break;  // Break out of inner loop when a common column is found
+    // Copy the given rows of a table into a new VectorSchemaRoot, allocated from the given allocator
+    // (null: the one of every source vector)
+    static VectorSchemaRoot select(VectorSchemaRoot table, int[] rows, BufferAllocator allocator) {
+        List<FieldVector> resultVectors = new ArrayList<>();
+        try {
+            for (FieldVector originalVector : table.getFieldVectors()) {
+                FieldVector resultVector = originalVector.getField().createVector(
+                        allocator != null ? allocator : originalVector.getAllocator());
+                resultVectors.add(resultVector);
+                resultVector.allocateNewSafe();
+                for (int outIndex = 0; outIndex < rows.length; outIndex++) {
+                    resultVector.copyFromSafe(rows[outIndex], outIndex, originalVector);
                 }
+                resultVector.setValueCount(rows.length);
             }
+        } catch (RuntimeException e) {
+            resultVectors.forEach(FieldVector::close);
+            throw e;
         }
+        VectorSchemaRoot result = new VectorSchemaRoot(resultVectors);
+        result.setRowCount(rows.length);
+        return result;
+    }
 
-        return commonColumns;
+    private static int[] rowsOf(int[][] selection, int batch) {
+        return selection == null ? null : selection[batch];
     }
 
-    public static VectorSchemaRoot semiJoin(VectorSchemaRoot leftTable, VectorSchemaRoot rightTable, String joinColumnName) {
-        // Get the join columns from both tables
-        ValueVector joinColumnLeft = leftTable.getVector(joinColumnName);
-        ValueVector joinColumnRight = rightTable.getVector(joinColumnName);
+    // The selection after a semi-join: stays null (every row) when nothing was dropped
+    private static int[] narrowed(int[] kept, int keptCount, int[] rows, int rowCount) {
+        if (rows == null && keptCount == rowCount) {
+            return null;
+        }
+        return keptCount == kept.length ? kept : Arrays.copyOf(kept, keptCount);
+    }
 
-        // Perform the semi-join and get the matching indices
-        List<Integer> matchingIndices = performSemiJoin(joinColumnLeft, joinColumnRight);
+    // Matching live rows of a left batch, at positions [from, to) of its selection (rows null = every row)
+    private interface MorselProbe {
+        int[] probe(VectorSchemaRoot batch, int[] rows, int from, int to);
+    }
 
-        // Create a new schema and vectors for the result
-        Schema resultSchema = new Schema(leftTable.getSchema().getFields());
-        List<FieldVector> resultVectors = new ArrayList<>();
+    private static int[][] probe(List<VectorSchemaRoot> leftBatches, int[][] leftSelection, MorselProbe probe) {
+        return parallelProbe && selectedCount(leftBatches, leftSelection) >= 2 * PROBE_MORSEL_ROWS
+                ? probeParallel(leftBatches, leftSelection, probe)
+                : probeSequential(leftBatches, leftSelection, probe);
+    }
 
-        // Populate the result vectors using the matching indices
-        for (Field field : leftTable.getSchema().getFields()) {
-            ValueVector originalVector = leftTable.getVector(field.getName());
-            FieldVector resultVector = originalVector.getField().createVector(originalVector.getAllocator());
-            resultVector.allocateNewSafe();
-            for (int index : matchingIndices) {
-                resultVector.copyFrom(index, 0, originalVector);
+    private static int[][] probeSequential(List<VectorSchemaRoot> leftBatches, int[][] leftSelection, MorselProbe probe) {
+        int[][] matches = new int[leftBatches.size()][];
+        for (int b = 0; b < leftBatches.size(); b++) {
+            VectorSchemaRoot leftTable = leftBatches.get(b);
+            int[] rows = rowsOf(leftSelection, b);
+            int liveCount = rows == null ? leftTable.getRowCount() : rows.length;
+            int[] kept = probe.probe(leftTable, rows, 0, liveCount);
+            matches[b] = narrowed(kept, kept.length, rows, leftTable.getRowCount());
+        }
+        return matches;
+    }
+
+    // The live rows of every left batch are cut into morsels of PROBE_MORSEL_ROWS rows, probed by ForkJoin
+    // workers against the same key set (only read once built). The matches of a batch are its morsels'
+    // matches in order.
+    private static int[][] probeParallel(List<VectorSchemaRoot> leftBatches, int[][] leftSelection, MorselProbe probe) {
+        List<ForkJoinTask<int[]>> morsels = new ArrayList<>();
+        int[] firstMorsel = new int[leftBatches.size() + 1];
+        for (int b = 0; b < leftBatches.size(); b++) {
+            firstMorsel[b] = morsels.size();
+            VectorSchemaRoot leftTable = leftBatches.get(b);
+            int[] rows = rowsOf(leftSelection, b);
+            int liveCount = rows == null ? leftTable.getRowCount() : rows.length;
+            for (int from = 0; from < liveCount; from += PROBE_MORSEL_ROWS) {
+                int start = from;
+                int end = Math.min(liveCount, from + PROBE_MORSEL_ROWS);
+                morsels.add(ForkJoinTask.adapt(() -> probe.probe(leftTable, rows, start, end)));
+            }
+        }
+        firstMorsel[leftBatches.size()] = morsels.size();
+        ForkJoinTask.invokeAll(morsels);
+
+        int[][] matches = new int[leftBatches.size()][];
+        for (int b = 0; b < leftBatches.size(); b++) {
+            int keptCount = 0;
+            for (int m = firstMorsel[b]; m < firstMorsel[b + 1]; m++) {
+                keptCount += morsels.get(m).join().length;
+            }
+            int[] kept = new int[keptCount];
+            int k = 0;
+            for (int m = firstMorsel[b]; m < firstMorsel[b + 1]; m++) {
+                int[] part = morsels.get(m).join();
+                System.arraycopy(part, 0, kept, k, part.length);
+                k += part.length;
             }
-            resultVectors.add(resultVector);
+            matches[b] = narrowed(kept, keptCount, rowsOf(leftSelection, b), leftBatches.get(b).getRowCount());
         }
+        return matches;
+    }
 
-        // Create the result VectorSchemaRoot
-        return new VectorSchemaRoot(resultSchema.getFields(), resultVectors);
+    private static int selectedCount(List<VectorSchemaRoot> batches, int[][] selection) {
+        int rowCount = 0;
+        for (int b = 0; b < batches.size(); b++) {
+            int[] rows = rowsOf(selection, b);
+            rowCount += rows == null ? batches.get(b).getRowCount() : rows.length;
+        }
+        return rowCount;
     }
 
-    private static List<Integer> performSemiJoin(ValueVector leftColumn, ValueVector rightColumn) {
-        // Implement your semi-join logic here
-        // Compare the values in leftColumn and rightColumn, and return the matching indices
-        // This is a simplistic example, and you may need to handle different data types and conditions
-        List<Integer> matchingIndices = new ArrayList<>();
-        for (int i = 0; i < leftColumn.getValueCount(); i++) {
-            for (int j = 0; j < rightColumn.getValueCount(); j++) {
-                if (leftColumn.getObject(i).equals(rightColumn.getObject(j))) {
-                    matchingIndices.add(i);
-                    break;  // Break out of inner loop when a match is found
-                }
+    private static ValueVector[] joinColumns(VectorSchemaRoot table, List<String> joinColumnNames) {
+        ValueVector[] columns = new ValueVector[joinColumnNames.size()];
+        for (int c = 0; c < columns.length; c++) {
+            columns[c] = table.getVector(joinColumnNames.get(c));
+            if (columns[c] == null) {
+                throw new IllegalArgumentException("Join column " + joinColumnNames.get(c) + " not found in " + table.getSchema());
             }
         }
-        return matchingIndices;
+        return columns;
     }
 
-    static List<PairChildParent> postOrderTraversal(JoinTreeNode root) {
-        List<PairChildParent> result = new ArrayList<>();
-        postOrderTraversalHelper(root, result);
-        return result;
+    // Switch between the hash semi-join and the original nested-loop one (kept for comparison)
+    static boolean useHashSemiJoin = true;
+
+    // Hash join keys in the off-heap ArrowHashTable when their types allow it, instead of a HashSet of
+    // CompositeKeys (--heap-hash-table turns it off)
+    static boolean useArrowHashTable = true;
+
+    // Memory a semi-join's key table may take before the semi-join spills to disk (--semi-join-budget);
+    // it also never takes more than half of what its allocator has left (--no-spill turns spilling off)
+    static long semiJoinMemoryBudget = Long.MAX_VALUE;
+    static boolean useGraceSemiJoin = true;
+
+    // Encode string join variables as dense int codes before reducing (--no-dictionary turns it off)
+    static boolean useKeyDictionary = true;
+
+    // Merge the small batches a relation is left with after the reducer into batches of up to
+    // Catalog.BATCH_SIZE rows (--no-coalesce turns it off)
+    static boolean coalesceBatches = true;
+
+    // Re-root and order the join tree from the scanned cardinalities before reducing (--fixed-join-tree turns it off)
+    static boolean reorderJoinTree = true;
+
+    // Run the semi-joins of independent subtrees in parallel (--sequential turns it off)
+    static boolean parallelReducer = true;
+
+    // Probe large left relations from several threads, PROBE_MORSEL_ROWS rows per task (--sequential turns it off)
+    static boolean parallelProbe = true;
+    static final int PROBE_MORSEL_ROWS = 16384;
+
+    // Check probing rows against a Bloom filter of the build side's keys before the exact key set
+    // (--no-bloom turns it off, --bloom-fpp and --bloom-max-bytes size the filters). A filter is built
+    // only when the probe side has at least bloomProbeRatio times as many live rows as the build side
+    // (--bloom-ratio): against a build side about as large as the probe side most rows find a key, and
+    // the filter would only add a hash per row.
+    static boolean useBloomFilter = true;
+    static double bloomFalsePositiveRate = 0.01;
+    static long bloomMaxBytes = 8L << 20;
+    static double bloomProbeRatio = 8;
+
+    // Empty filter sized for the live right rows, or null when no filter is worth building
+    private static BloomFilter bloomFilterFor(List<VectorSchemaRoot> leftBatches, int[][] leftSelection,
+                                              List<VectorSchemaRoot> rightBatches, int[][] rightSelection,
+                                              BloomFilter.Metrics metrics) {
+        if (!useBloomFilter) {
+            return null;
+        }
+        long buildRows = selectedCount(rightBatches, rightSelection);
+        if (buildRows == 0 || buildRows * bloomProbeRatio > selectedCount(leftBatches, leftSelection)) {
+            return null;
+        }
+        return BloomFilter.create(buildRows, bloomFalsePositiveRate, bloomMaxBytes, metrics);
     }
 
-    static void postOrderTraversalHelper(JoinTreeNode node, List<PairChildParent> result) {
-        if (node == null) {
-            return;
+    // Build a key set from the live right (child) rows once, then probe every live left row in a single pass.
+    // Rows with a null in any key column never match, on either side. Every new key also goes into the
+    // Bloom filter, if any.
+    private static Set<CompositeKey> buildKeySet(List<VectorSchemaRoot> batches, int[][] selection, List<String> joinColumnNames,
+                                                 BloomFilter bloom) {
+        int rowCount = selectedCount(batches, selection);
+        Set<CompositeKey> keys = new HashSet<>(Math.max(16, (int) (rowCount / 0.75f) + 1));
+        for (int b = 0; b < batches.size(); b++) {
+            ValueVector[] columns = joinColumns(batches.get(b), joinColumnNames);
+            int[] rows = rowsOf(selection, b);
+            int liveCount = rows == null ? batches.get(b).getRowCount() : rows.length;
+            for (int k = 0; k < liveCount; k++) {
+                int row = rows == null ? k : rows[k];
+                if (!CompositeKey.hasNull(columns, row) && keys.add(new CompositeKey(columns, row)) && bloom != null) {
+                    bloom.add(BloomFilter.hash(columns, row));
+                }
+            }
         }
+        return keys;
+    }
 
-        // Traverse children first
-        for (JoinTreeNode child : node.children) {
-            postOrderTraversalHelper(child, result);
+    // Live left rows at positions [from, to) of the selection whose key is in the set; the set (and the
+    // Bloom filter in front of it, if any) is only read, so workers can share it
+    private static int[] probeKeySet(ValueVector[] leftColumns, int[] rows, int from, int to, Set<CompositeKey> keys,
+                                     BloomFilter bloom) {
+        if (keys.isEmpty()) {
+            return new int[0];
         }
+        int[] kept = new int[to - from];
+        int keptCount = 0;
+        int tested = 0;
+        int passed = 0;
+        for (int k = from; k < to; k++) {
+            int row = rows == null ? k : rows[k];
+            if (CompositeKey.hasNull(leftColumns, row)) {
+                continue;
+            }
+            if (bloom != null) {
+                tested++;
+                if (!bloom.mightContain(BloomFilter.hash(leftColumns, row))) {
+                    continue;
+                }
+                passed++;
+            }
+            if (keys.contains(new CompositeKey(leftColumns, row))) {
+                kept[keptCount++] = row;
+            }
+        }
+        if (bloom != null) {
+            bloom.record(tested, passed, keptCount);
+        }
+        return keptCount == kept.length ? kept : Arrays.copyOf(kept, keptCount);
+    }
 
-        // Visit the current node after all children
-        if (node.parent != null) {
-            result.add(new PairChildParent(node , node.parent));
+    // Same as probeKeySet, against the off-heap table; leftColumns are the same key columns, for the filter
+    private static int[] probeHashTable(ArrowHashTable.Keys leftKeys, ValueVector[] leftColumns, int[] rows, int from, int to,
+                                        ArrowHashTable keys, BloomFilter bloom) {
+        if (keys.size() == 0) {
+            return new int[0];
+        }
+        int[] kept = new int[to - from];
+        int keptCount = 0;
+        int tested = 0;
+        int passed = 0;
+        for (int k = from; k < to; k++) {
+            int row = rows == null ? k : rows[k];
+            if (leftKeys.hasNull(row)) {
+                continue;
+            }
+            if (bloom != null) {
+                tested++;
+                if (!bloom.mightContain(BloomFilter.hash(leftColumns, row))) {
+                    continue;
+                }
+                passed++;
+            }
+            if (keys.contains(leftKeys, row, leftKeys.hash(row))) {
+                kept[keptCount++] = row;
+            }
         }
+        if (bloom != null) {
+            bloom.record(tested, passed, keptCount);
+        }
+        return keptCount == kept.length ? kept : Arrays.copyOf(kept, keptCount);
     }
 
+    // Adds the key of every live row without a null to the filter
+    private static void addKeys(BloomFilter bloom, List<VectorSchemaRoot> batches, int[][] selection, List<String> joinColumnNames) {
+        for (int b = 0; b < batches.size(); b++) {
+            ValueVector[] columns = joinColumns(batches.get(b), joinColumnNames);
+            int[] rows = rowsOf(selection, b);
+            int liveCount = rows == null ? batches.get(b).getRowCount() : rows.length;
+            for (int k = 0; k < liveCount; k++) {
+                int row = rows == null ? k : rows[k];
+                if (!CompositeKey.hasNull(columns, row)) {
+                    bloom.add(BloomFilter.hash(columns, row));
+                }
+            }
+        }
+    }
 
-    static List<PairChildParent> preOrderTraversal(JoinTreeNode root) {
+    // Children before their parent, and the children of a node in their order (as ParallelReducer joins
+    // them): the reverse of a pre order that visits siblings last to first, without recursion
+    static List<PairChildParent> postOrderTraversal(JoinTree tree) {
         List<PairChildParent> result = new ArrayList<>();
-        preOrderTraversalHelper(root, result);
+        if (tree.getRoot() == null) {
+            return result;
+        }
+        int[] childOffsets = tree.childOffsets();
+        int[] childIds = tree.childIds();
+        Deque<Integer> stack = new ArrayDeque<>();
+        List<JoinTreeNode> reversed = new ArrayList<>();
+        stack.push(tree.getRoot().id);
+        while (!stack.isEmpty()) {
+            int id = stack.pop();
+            reversed.add(tree.getNode(id));
+            for (int k = childOffsets[id]; k < childOffsets[id + 1]; k++) {
+                stack.push(childIds[k]);
+            }
+        }
+        for (int i = reversed.size() - 1; i >= 0; i--) {
+            JoinTreeNode node = reversed.get(i);
+            if (node.parent != null) {
+                result.add(new PairChildParent(node , node.parent));
+            }
+        }
         return result;
     }
 
-    static void preOrderTraversalHelper(JoinTreeNode node, List<PairChildParent> result) {
-        if (node == null) {
-            return;
-        }
-
-        // Visit the current node before its children
-        if (node.parent != null) {
-            // Perform operations between each parent and its child
-            PairChildParent pair = new PairChildParent(node , node.parent);
-            result.add(pair);
-        }
 
-        // Traverse children
-        for (JoinTreeNode child : node.children) {
-            preOrderTraversalHelper(child, result);
+    static List<PairChildParent> preOrderTraversal(JoinTree tree) {
+        List<PairChildParent> result = new ArrayList<>();
+        for (int id : tree.preOrder()) {
+            JoinTreeNode node = tree.getNode(id);
+            if (node.parent != null) {
+                // Perform operations between each parent and its child
+                result.add(new PairChildParent(node , node.parent));
+            }
         }
+        return result;
     }
 
     static class PairChildParent {
         JoinTreeNode child;
         JoinTreeNode parent;
 
-        String commonColumn ;
+        List<String> commonColumns = new ArrayList<>();
 
         PairChildParent(JoinTreeNode child, JoinTreeNode parent) {
             this.child = child;
             this.parent = parent;
+            // Every shared variable is part of the (composite) join key
+            if (child.variables != null && parent.variables != null && child.variableNames == parent.variableNames) {
+                BitSet shared = (BitSet) child.variables.clone();
+                shared.and(parent.variables);
+                for (int v = shared.nextSetBit(0); v >= 0; v = shared.nextSetBit(v + 1)) {
+                    commonColumns.add(child.variableNames.get(v));
+                }
+                return;
+            }
             for (String field : child.atom){
                 if (parent.atom.contains(field)) {
-                    // First common column is taken, others ignored
-                    commonColumn = field;
-                    break;
+                    commonColumns.add(field);
                 }
             }
         }
@@ -647,97 +1363,192 @@ public class Main {
         }
     }
 
-    public static void combine(VectorSchemaRoot targetRoot, List<VectorSchemaRoot> sourceRoots) throws IOException {
-        try(BufferAllocator allocator = new RootAllocator()){
-            if (targetRoot == null){
-                targetRoot = VectorSchemaRoot.create(sourceRoots.get(0).getSchema(), allocator);
-            }
-            for (VectorSchemaRoot sourceRoot : sourceRoots) {
-                combineRoots(targetRoot, sourceRoot);
+    static final int OUTPUT_BATCH_SIZE = 4096;
+
+    // Value following a "--name value" command line option, null when the option is absent
+    private static String optionValue(String[] args, String name) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
             }
         }
-
+        return null;
     }
 
-    private static void combineRoots(VectorSchemaRoot targetRoot, VectorSchemaRoot sourceRoot) throws IOException {
-        Schema schema = targetRoot.getSchema();
-        for (FieldVector targetVector : targetRoot.getFieldVectors()) {
-            FieldVector sourceVector = sourceRoot.getVector(targetVector.getName());
-            if (sourceVector != null) {
-                TransferPair transferPair = targetVector.makeTransferPair(sourceVector);
-                transferPair.transfer();
+    // Values of every "--name value" occurrence of a command line option, in order
+    private static List<String> optionValues(String[] args, String name) {
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals(name)) {
+                values.add(args[++i]);
             }
         }
-        targetRoot.setRowCount(targetRoot.getRowCount() + sourceRoot.getRowCount());
+        return values;
     }
 
-    public static void main(String[] args) throws IOException {
-
-        // Example query: Answer() :-
-        //                  Beers(beer_id, brew_id, beer, abv, ibu, ounces, style, style2),
-        //                  Styles(style_id, cat_id, style),
-        //                  Categories(cat_id, 'Belgian and French Ale').
-
-        // Beers
-        Term beerId = new Term("beer_id", true);
-        Term brewId = new Term("brew_id", true);
-        Term beer = new Term("beer", true);
-        Term abv = new Term("abv", true);
-        Term ibu = new Term("ibu", true);
-        Term ounces = new Term("ounces", true);
-        Term style = new Term("style", true);
-        Term style2 = new Term("style2", true);
-
-        List<Term> beersTerms = List.of(beerId, brewId, beer, abv, ibu, ounces, style, style2);
-        Atom beersAtom = new Atom("Beers", beersTerms);
-
-        // Styles
-        Term styleId = new Term("style_id", true);
-        Term catIdStyle = new Term("cat_id", true);
-        Term styleTerm = new Term("style", true);
-
-        List<Term> stylesTerms = List.of(styleId, catIdStyle, styleTerm);
-        Atom stylesAtom = new Atom("Styles", stylesTerms);
-
-        // Categories
-        Term catIdCategories = new Term("cat_id", true);
-        Term belgianFrenchAle = new Term("Belgian and French Ale", false);
-
-        List<Term> categoriesTerms = List.of(catIdCategories, belgianFrenchAle);
-        Atom categoriesAtom = new Atom("Categories", categoriesTerms);
-
-        // Full QUERY
-        ConjunctiveQuery query = new ConjunctiveQuery(new Atom("Answer", List.of()), List.of(beersAtom, stylesAtom, categoriesAtom));
-
-
-        HyperGraph hyperGraph = query.buildHyperGraph();
-        //hyperGraph.printHyperGraph();
-        if (hyperGraph.isAcyclic()){
-            JoinTree treeCQ = hyperGraph.getJoinTree();
-            treeCQ.printJoinTree();
-            fullReducer(treeCQ);
+    static final String EXAMPLE_QUERY = "Answer(beer) :- "
+            + "Beers(beer_id, brew_id, beer, abv, ibu, ounces, style, style2), "
+            + "Styles(style_id, cat_id, style), "
+            + "Categories(cat_id, 'Belgian and French Ale').";
+
+    // Reduces the database for one planned query, then streams its answers, under a budget of its own.
+    // Running out of that budget aborts this query only: everything it allocated is released.
+    private static void runQuery(QueryPlan plan, Catalog catalog, BufferAllocator root, Path arrowOut, Path csvOut)
+            throws IOException {
+        try (BufferAllocator queryMemory = Allocators.newQuery("query")) {
+            try (ReducedDatabase reduced = fullReducer(plan, catalog, queryMemory)) {
+                plan.getJoinTree().printJoinTree();
+                for (JoinTreeNode node : reduced.nodes()) {
+                    System.out.println(node.alias + " reduced to " + reduced.getRowCount(node) + " rows");
+                }
+                if (reduced.bloomMetrics().getFilters() > 0) {
+                    System.out.println(reduced.bloomMetrics());
+                }
+                if (reduced.spillMetrics().getJoins() > 0) {
+                    System.out.println(reduced.spillMetrics());
+                }
 
+                // Optional sinks: Arrow IPC files (typed, memory-mappable) and/or CSV files
+                if (arrowOut != null || csvOut != null) {
+                    try (BufferAllocator export = Allocators.newOperator(queryMemory, "export")) {
+                        if (arrowOut != null) {
+                            ArrowIpc.writeAll(arrowOut, reduced, export);
+                        }
+                        if (csvOut != null) {
+                            CsvWriter.writeAll(csvOut, reduced, export);
+                        }
+                    }
+                }
 
+                // Query the reduced DB: answers are streamed batch by batch
+                long answers = 0;
+                try (BufferAllocator enumeration = Allocators.newOperator(queryMemory, "enumerator");
+                     JoinEnumerator enumerator = new JoinEnumerator(plan.getJoinTree(), reduced, plan.getAnswerVariables(),
+                             OUTPUT_BATCH_SIZE, enumeration);
+                     ArrowFileWriter arrowAnswers = arrowOut == null ? null
+                             : ArrowIpc.openWriter(arrowOut.resolve("answers" + ArrowIpc.EXTENSION), enumerator.getVectorSchemaRoot());
+                     CsvWriter csvAnswers = csvOut == null ? null : new CsvWriter(csvOut.resolve("answers.csv"))) {
+                    if (csvAnswers != null) {
+                        csvAnswers.writeHeader(enumerator.getVectorSchemaRoot().getSchema());
+                    }
+                    while (enumerator.loadNextBatch()) {
+                        VectorSchemaRoot batch = enumerator.getVectorSchemaRoot();
+                        if (answers == 0) {
+                            System.out.println(batch.contentToTSVString());
+                        }
+                        if (arrowAnswers != null) {
+                            arrowAnswers.writeBatch();
+                        }
+                        if (csvAnswers != null) {
+                            csvAnswers.write(batch);
+                        }
+                        answers += batch.getRowCount();
+                    }
+                    if (arrowAnswers != null) {
+                        arrowAnswers.end();
+                    }
+                }
+                System.out.println(answers + " answers");
+            } catch (OutOfMemoryException e) {
+                // Over budget: everything the query allocated has been released on the way out
+                System.err.println("Query aborted, out of its memory budget: " + e.getMessage());
+            }
+            System.out.print(Allocators.report(root));
         }
+    }
 
+    public static void main(String[] args) throws IOException {
+        if (asList(args).contains("--nested-loop")) {
+            useHashSemiJoin = false;
+        }
+        if (asList(args).contains("--no-bloom")) {
+            useBloomFilter = false;
+        }
+        if (optionValue(args, "--bloom-fpp") != null) {
+            bloomFalsePositiveRate = Double.parseDouble(optionValue(args, "--bloom-fpp"));
+        }
+        if (optionValue(args, "--bloom-max-bytes") != null) {
+            bloomMaxBytes = Long.parseLong(optionValue(args, "--bloom-max-bytes"));
+        }
+        if (optionValue(args, "--bloom-ratio") != null) {
+            bloomProbeRatio = Double.parseDouble(optionValue(args, "--bloom-ratio"));
+        }
+        if (asList(args).contains("--heap-hash-table")) {
+            useArrowHashTable = false;
+        }
+        if (asList(args).contains("--no-dictionary")) {
+            useKeyDictionary = false;
+        }
+        if (asList(args).contains("--fixed-join-tree")) {
+            reorderJoinTree = false;
+        }
+        if (asList(args).contains("--no-coalesce")) {
+            coalesceBatches = false;
+        }
+        if (asList(args).contains("--no-cache")) {
+            Catalog.useCache = false;
+        }
+        if (optionValue(args, "--cache-dir") != null) {
+            Catalog.cacheDirectory = Path.of(optionValue(args, "--cache-dir"));
+        }
+        if (asList(args).contains("--sequential")) {
+            parallelReducer = false;
+            parallelProbe = false;
+        }
+        if (optionValue(args, "--memory-limit") != null) {
+            Allocators.processLimit = Allocators.parseSize(optionValue(args, "--memory-limit"));
+        }
+        // Scanned columns stay accounted to the catalog, see Allocators.queryLimit
+        if (optionValue(args, "--query-memory-limit") != null) {
+            Allocators.queryLimit = Allocators.parseSize(optionValue(args, "--query-memory-limit"));
+        }
+        if (optionValue(args, "--semi-join-budget") != null) {
+            semiJoinMemoryBudget = Allocators.parseSize(optionValue(args, "--semi-join-budget"));
+        }
+        if (optionValue(args, "--spill-dir") != null) {
+            GraceSemiJoin.spillDirectory = Path.of(optionValue(args, "--spill-dir"));
+        }
+        if (asList(args).contains("--no-spill")) {
+            useGraceSemiJoin = false;
+        }
 
+        if (optionValue(args, "--plan-cache-size") != null) {
+            QueryPlan.cacheCapacity = Integer.parseInt(optionValue(args, "--plan-cache-size"));
+        }
 
-        // Load the database using Apache Arrow here
-
-
-
-        String uriBeers = "beers.csv";
-        String uriLocations = "locations.csv";
-        String uriBreweries = "breweries.csv";
-        String uriCategories = "categories.csv";
-        String uriStyles = "styles.csv";
-
-
-
-
-
-        // HERE CALL THE YANNAKAKIS :
-        // IntialQuery --> Hypergraph --> Acyclicity ? --> JoinTree --> FullReducer --> Query the new DB
+        // Every --query runs in turn against the same catalog; without any, the example query runs
+        List<String> queries = optionValues(args, "--query");
+        if (queries.isEmpty()) {
+            queries = List.of(EXAMPLE_QUERY);
+        }
+        String arrowOut = optionValue(args, "--arrow-out");
+        String csvOut = optionValue(args, "--csv-out");
+
+        // One root for the process: the catalog outlives the queries, every query has its own budget
+        BufferAllocator root = Allocators.root();
+        try (BufferAllocator catalogMemory = Allocators.newOperator(root, "catalog");
+             Catalog catalog = new Catalog(catalogMemory)) {
+            for (int q = 0; q < queries.size(); q++) {
+                QueryPlan plan;
+                try {
+                    plan = QueryPlan.of(queries.get(q));
+                } catch (IllegalArgumentException e) {
+                    System.err.println(e.getMessage());
+                    continue;
+                }
+                if (!plan.isAcyclic()) {
+                    System.out.println("Not an acyclic query: " + plan.getQuery());
+                    continue;
+                }
+                // Several queries write their outputs to one subdirectory each
+                String subdirectory = queries.size() == 1 ? "" : "query" + (q + 1);
+                runQuery(plan, catalog, root, arrowOut == null ? null : Path.of(arrowOut, subdirectory),
+                        csvOut == null ? null : Path.of(csvOut, subdirectory));
+            }
+            if (queries.size() > 1) {
+                System.out.println("Plan cache: " + QueryPlan.HITS + " hits, " + QueryPlan.MISSES + " misses");
+            }
+        }
     }
 
 
@@ -0,0 +1,180 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+// Linear-time acyclicity test for hypergraphs (Tarjan & Yannakakis, restricted maximum cardinality
+// search). Hyperedges are picked one at a time, always one with the most already-selected vertices;
+// picking an edge selects its remaining vertices. Writing S(e) for the vertices of e selected before
+// e was picked, the hypergraph is alpha-acyclic iff for every edge S(e) is contained in its parent:
+// the edge that selected the most recently selected vertex of S(e). Those parent links are a join tree.
+//
+// Every step is proportional to the size of the edges it touches, so the whole search runs in
+// O(number of vertices + sum of the edge sizes).
+final class MaximumCardinalitySearch {
+    private static final int NONE = -1;
+
+    private MaximumCardinalitySearch() {
+    }
+
+    // Returns the join tree of the hypergraph, or null when it is cyclic
+    static JoinTree joinTree(List<HyperEdge> hyperEdges, List<String> variableNames) {
+        int edgeCount = hyperEdges.size();
+        JoinTree tree = new JoinTree();
+        if (edgeCount == 0) {
+            return tree;
+        }
+
+        // Vertices are the interned variable ids of the hyperedges; build both incidence lists
+        int vertexCount = variableNames.size();
+        int[][] edgeVertices = new int[edgeCount][];
+        int maxEdgeSize = 0;
+        for (int e = 0; e < edgeCount; e++) {
+            BitSet variables = hyperEdges.get(e).getVariables();
+            edgeVertices[e] = new int[variables.cardinality()];
+            int k = 0;
+            for (int v = variables.nextSetBit(0); v >= 0; v = variables.nextSetBit(v + 1)) {
+                edgeVertices[e][k++] = v;
+            }
+            maxEdgeSize = Math.max(maxEdgeSize, k);
+        }
+        int[] degree = new int[vertexCount];
+        for (int[] vertices : edgeVertices) {
+            for (int v : vertices) {
+                degree[v]++;
+            }
+        }
+        int[][] vertexEdges = new int[vertexCount][];
+        for (int v = 0; v < vertexCount; v++) {
+            vertexEdges[v] = new int[degree[v]];
+            degree[v] = 0;
+        }
+        for (int e = 0; e < edgeCount; e++) {
+            for (int v : edgeVertices[e]) {
+                vertexEdges[v][degree[v]++] = e;
+            }
+        }
+
+        // Unpicked edges live in doubly linked buckets indexed by their number of selected vertices
+        int[] selectedCount = new int[edgeCount];
+        int[] bucketHead = new int[maxEdgeSize + 1];
+        int[] previous = new int[edgeCount];
+        int[] next = new int[edgeCount];
+        Arrays.fill(bucketHead, NONE);
+        for (int e = edgeCount - 1; e >= 0; e--) {
+            pushBucket(e, 0, bucketHead, previous, next);
+        }
+        int maxBucket = 0;
+
+        int[] selectedBy = new int[vertexCount];      // pick index of the edge that selected each vertex
+        Arrays.fill(selectedBy, NONE);
+        int[] pickOrder = new int[edgeCount];         // pick index -> edge
+        int[] parent = new int[edgeCount];            // edge -> parent edge
+        int[][] earlier = new int[edgeCount][];       // edge -> S(e)
+        boolean[] picked = new boolean[edgeCount];
+
+        for (int i = 0; i < edgeCount; i++) {
+            while (bucketHead[maxBucket] == NONE) {
+                maxBucket--;
+            }
+            int e = bucketHead[maxBucket];
+            removeBucket(e, maxBucket, bucketHead, previous, next);
+            picked[e] = true;
+            pickOrder[i] = e;
+
+            int[] vertices = edgeVertices[e];
+            int[] selectedBefore = new int[selectedCount[e]];
+            int s = 0;
+            int latest = NONE;
+            for (int v : vertices) {
+                if (selectedBy[v] != NONE) {
+                    selectedBefore[s++] = v;
+                    latest = Math.max(latest, selectedBy[v]);
+                }
+            }
+            earlier[e] = selectedBefore;
+            parent[e] = latest == NONE ? NONE : pickOrder[latest];
+
+            for (int v : vertices) {
+                if (selectedBy[v] != NONE) {
+                    continue;
+                }
+                selectedBy[v] = i;
+                for (int f : vertexEdges[v]) {
+                    if (!picked[f]) {
+                        removeBucket(f, selectedCount[f], bucketHead, previous, next);
+                        selectedCount[f]++;
+                        pushBucket(f, selectedCount[f], bucketHead, previous, next);
+                        maxBucket = Math.max(maxBucket, selectedCount[f]);
+                    }
+                }
+            }
+        }
+
+        // Check S(e) against the parent, children grouped by parent so every parent is marked once
+        int[] firstChild = new int[edgeCount];
+        int[] nextSibling = new int[edgeCount];
+        Arrays.fill(firstChild, NONE);
+        for (int i = edgeCount - 1; i >= 0; i--) {
+            int e = pickOrder[i];
+            if (parent[e] != NONE) {
+                nextSibling[e] = firstChild[parent[e]];
+                firstChild[parent[e]] = e;
+            }
+        }
+        int[] mark = new int[vertexCount];
+        Arrays.fill(mark, NONE);
+        for (int p = 0; p < edgeCount; p++) {
+            if (firstChild[p] == NONE) {
+                continue;
+            }
+            for (int v : edgeVertices[p]) {
+                mark[v] = p;
+            }
+            for (int c = firstChild[p]; c != NONE; c = nextSibling[c]) {
+                for (int v : earlier[c]) {
+                    if (mark[v] != p) {
+                        return null;
+                    }
+                }
+            }
+        }
+
+        // Pick order lists parents before their children; disconnected components hang off the root
+        JoinTreeNode[] nodes = new JoinTreeNode[edgeCount];
+        for (int i = 0; i < edgeCount; i++) {
+            int e = pickOrder[i];
+            HyperEdge edge = hyperEdges.get(e);
+            JoinTreeNode node = new JoinTreeNode(edge.getNodes(), null, edge.getName());
+            node.queryAtom = edge.getAtom();
+            node.variables = edge.getVariables();
+            node.variableNames = variableNames;
+            nodes[e] = node;
+            if (i == 0) {
+                tree.setRoot(node);
+            } else {
+                tree.attach(parent[e] == NONE ? tree.getRoot() : nodes[parent[e]], node);
+            }
+        }
+        return tree;
+    }
+
+    private static void pushBucket(int e, int bucket, int[] bucketHead, int[] previous, int[] next) {
+        previous[e] = NONE;
+        next[e] = bucketHead[bucket];
+        if (bucketHead[bucket] != NONE) {
+            previous[bucketHead[bucket]] = e;
+        }
+        bucketHead[bucket] = e;
+    }
+
+    private static void removeBucket(int e, int bucket, int[] bucketHead, int[] previous, int[] next) {
+        if (previous[e] != NONE) {
+            next[previous[e]] = next[e];
+        } else {
+            bucketHead[bucket] = next[e];
+        }
+        if (next[e] != NONE) {
+            previous[next[e]] = previous[e];
+        }
+    }
+}
@@ -0,0 +1,101 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Semi-join passes of the full reducer scheduled on a ForkJoinPool. Sibling subtrees of the join tree
+// touch disjoint relations, so they are reduced concurrently:
+//  - bottom-up, a node forks one task per child and reduces itself by each child once they have all
+//    joined, so a parent still waits for every child subtree;
+//  - top-down, a node is reduced by its (already final) parent, then its children run in parallel.
+// Each relation's selection is only ever narrowed by the task owning its node, after every task it
+// depends on has joined, which is what makes the writes to the ReducedDatabase visible to the readers.
+// When a task fails (e.g. over the query's memory budget), its siblings still run to completion before
+// the failure goes up, so nothing is allocating any more when the caller releases the database.
+final class ParallelReducer {
+    private ParallelReducer() {
+    }
+
+    static void reduce(JoinTree tree, Main.ReducedDatabase database, ForkJoinPool pool) {
+        if (tree.getRoot() == null) {
+            return;
+        }
+        pool.invoke(new BottomUp(database, tree.getRoot()));
+        pool.invoke(new TopDown(database, tree.getRoot()));
+    }
+
+    private static final class BottomUp extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Main.ReducedDatabase database;
+        private final JoinTreeNode node;
+
+        BottomUp(Main.ReducedDatabase database, JoinTreeNode node) {
+            this.database = database;
+            this.node = node;
+        }
+
+        @Override
+        protected void compute() {
+            List<BottomUp> children = new ArrayList<>();
+            for (JoinTreeNode child : node.children) {
+                children.add(new BottomUp(database, child));
+            }
+            invokeAllToCompletion(children);
+            for (JoinTreeNode child : node.children) {
+                Main.reduceBy(database, node, child, new Main.PairChildParent(child, node).commonColumns);
+            }
+        }
+    }
+
+    private static final class TopDown extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Main.ReducedDatabase database;
+        private final JoinTreeNode node;
+
+        TopDown(Main.ReducedDatabase database, JoinTreeNode node) {
+            this.database = database;
+            this.node = node;
+        }
+
+        @Override
+        protected void compute() {
+            if (node.parent != null) {
+                Main.reduceBy(database, node, node.parent, new Main.PairChildParent(node, node.parent).commonColumns);
+            }
+            List<TopDown> children = new ArrayList<>();
+            for (JoinTreeNode child : node.children) {
+                children.add(new TopDown(database, child));
+            }
+            invokeAllToCompletion(children);
+        }
+    }
+
+    // Like invokeAll, except that a failing task does not cancel or abandon the others: every task is
+    // joined, then the first failure is rethrown
+    private static void invokeAllToCompletion(List<? extends RecursiveAction> tasks) {
+        for (int i = 1; i < tasks.size(); i++) {
+            tasks.get(i).fork();
+        }
+        RuntimeException failure = null;
+        for (int i = 0; i < tasks.size(); i++) {
+            try {
+                if (i == 0) {
+                    tasks.get(0).invoke();
+                } else {
+                    tasks.get(i).join();
+                }
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
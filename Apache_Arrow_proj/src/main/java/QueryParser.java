@@ -0,0 +1,147 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Parser for conjunctive queries written as Datalog rules:
+//
+//     Answer(beer) :- Beers(beer_id, brew_id, beer, abv, ibu, ounces, style, style2),
+//                     Styles(style_id, cat_id, style),
+//                     Categories(cat_id, 'Belgian and French Ale').
+//
+// An identifier is a variable; a quoted string ('...' or "...", the quote doubled inside) or a number
+// is a constant, compared with the column's values by AtomScan. Every "_" is a fresh variable that
+// joins with nothing. The final period is optional, whitespace is free.
+final class QueryParser {
+    private final String text;
+    private int position = 0;
+    private int anonymousVariables = 0;
+
+    private QueryParser(String text) {
+        this.text = text;
+    }
+
+    static ConjunctiveQuery parse(String text) {
+        QueryParser parser = new QueryParser(text);
+        Atom head = parser.atom();
+        parser.expect(":-");
+        List<Atom> body = new ArrayList<>();
+        do {
+            body.add(parser.atom());
+        } while (parser.accept(","));
+        parser.accept(".");
+        parser.skipWhitespace();
+        if (parser.position < text.length()) {
+            throw parser.error("unexpected '" + text.charAt(parser.position) + "'");
+        }
+        return new ConjunctiveQuery(head, body);
+    }
+
+    private Atom atom() {
+        String relation = identifier("relation name");
+        expect("(");
+        List<Term> terms = new ArrayList<>();
+        if (!accept(")")) {
+            do {
+                terms.add(term());
+            } while (accept(","));
+            expect(")");
+        }
+        return new Atom(relation, terms);
+    }
+
+    private Term term() {
+        skipWhitespace();
+        char c = position < text.length() ? text.charAt(position) : 0;
+        if (c == '\'' || c == '"') {
+            return new Term(quoted(c), false);
+        }
+        if (c == '-' || c == '+' || c == '.' || Character.isDigit(c)) {
+            return new Term(number(), false);
+        }
+        String name = identifier("term");
+        if (name.equals("_")) {
+            // "#" cannot appear in an identifier, so no variable of the query can have this name
+            return new Term("_#" + (++anonymousVariables), true);
+        }
+        return new Term(name, true);
+    }
+
+    private String quoted(char quote) {
+        int start = position++;
+        StringBuilder value = new StringBuilder();
+        while (position < text.length()) {
+            char c = text.charAt(position++);
+            if (c != quote) {
+                value.append(c);
+            } else if (position < text.length() && text.charAt(position) == quote) {
+                value.append(quote);
+                position++;
+            } else {
+                return value.toString();
+            }
+        }
+        position = start;
+        throw error("unterminated string");
+    }
+
+    private String number() {
+        int start = position;
+        if (text.charAt(position) == '-' || text.charAt(position) == '+') {
+            position++;
+        }
+        while (position < text.length() && isNumberPart(text.charAt(position), text.charAt(position - 1))) {
+            position++;
+        }
+        String number = text.substring(start, position);
+        try {
+            Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            position = start;
+            throw error("invalid number '" + number + "'");
+        }
+        return number;
+    }
+
+    private static boolean isNumberPart(char c, char previous) {
+        return Character.isDigit(c) || c == '.' || c == 'e' || c == 'E'
+                || ((c == '-' || c == '+') && (previous == 'e' || previous == 'E'));
+    }
+
+    private String identifier(String what) {
+        skipWhitespace();
+        int start = position;
+        while (position < text.length()
+                && (Character.isLetterOrDigit(text.charAt(position)) || text.charAt(position) == '_')) {
+            position++;
+        }
+        if (position == start || Character.isDigit(text.charAt(start))) {
+            position = start;
+            throw error("expected a " + what);
+        }
+        return text.substring(start, position);
+    }
+
+    private boolean accept(String token) {
+        skipWhitespace();
+        if (text.startsWith(token, position)) {
+            position += token.length();
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String token) {
+        if (!accept(token)) {
+            throw error("expected '" + token + "'");
+        }
+    }
+
+    private void skipWhitespace() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Invalid query at position " + position + ": " + message + "\n" + text);
+    }
+}
@@ -0,0 +1,248 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+// Everything the engine derives from a query before touching any data: the acyclicity verdict and join
+// tree of its hypergraph (HyperGraph.isAcyclicMCS, linear in the size of the query), the semi-join
+// traversal orders with the key columns of every step, and the variables scans must produce. None of it
+// depends on the constants of the query, so compiled plans are cached under the normalized query
+// (QueryPlan.normalize), where every constant is a parameter $1, $2, ...: a repeated query, or the same
+// query with other constants, skips planning altogether.
+//
+// The cache only holds the immutable part (Compiled). Every QueryPlan handed out has a join tree of
+// its own, copied from the compiled one in linear time and bound to the caller's atoms, so the reducer
+// can re-root it (JoinOrder) while other threads run plans of the same query.
+final class QueryPlan {
+    // Plans kept, least recently used dropped first (--plan-cache-size, 0 turns the cache off)
+    static int cacheCapacity = 256;
+
+    static final LongAdder HITS = new LongAdder();
+    static final LongAdder MISSES = new LongAdder();
+
+    private static final Map<String, Compiled> CACHE = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Compiled> eldest) {
+            return size() > cacheCapacity;
+        }
+    };
+
+    private final Compiled compiled;
+    private final ConjunctiveQuery query;
+    private final JoinTree tree;                              // null when the query is cyclic
+    private List<Main.PairChildParent> semiJoinsPostOrder = List.of();  // of the tree's shape when orderedShape was taken
+    private List<Main.PairChildParent> semiJoinsPreOrder = List.of();
+    private int orderedShape = -1;
+
+    private QueryPlan(Compiled compiled, ConjunctiveQuery query) {
+        this.compiled = compiled;
+        this.query = query;
+        this.tree = compiled.bind(query);
+    }
+
+    // A plan for this query alone, not cached
+    static QueryPlan compile(ConjunctiveQuery query) {
+        return new QueryPlan(new Compiled(normalize(query), query), query);
+    }
+
+    static QueryPlan compile(String query) {
+        return compile(QueryParser.parse(query));
+    }
+
+    // A plan of the query's normalized form, compiled on a cache miss, with a join tree of its own
+    static QueryPlan of(ConjunctiveQuery query) {
+        String key = normalize(query);
+        Compiled compiled;
+        synchronized (CACHE) {
+            compiled = cacheCapacity > 0 ? CACHE.get(key) : null;
+        }
+        if (compiled == null) {
+            MISSES.increment();
+            compiled = new Compiled(key, query);
+            if (cacheCapacity > 0) {
+                synchronized (CACHE) {
+                    CACHE.put(key, compiled);
+                }
+            }
+        } else {
+            HITS.increment();
+        }
+        return new QueryPlan(compiled, query);
+    }
+
+    static QueryPlan of(String query) {
+        return of(QueryParser.parse(query));
+    }
+
+    static void clearCache() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+
+    // The reducer may reshape the tree (JoinOrder): the traversals follow its current shape
+    private void order() {
+        if (tree != null && orderedShape != tree.getReshapeCount()) {
+            semiJoinsPostOrder = Main.postOrderTraversal(tree);
+            semiJoinsPreOrder = Main.preOrderTraversal(tree);
+            orderedShape = tree.getReshapeCount();
+        }
+    }
+
+    // Every head variable must be bound by the body, otherwise its answers would be unbounded
+    private static void checkSafe(ConjunctiveQuery query) {
+        Set<String> bodyVariables = new HashSet<>();
+        for (Atom atom : query.getBody()) {
+            for (Term term : atom.getTerms()) {
+                if (term.isVariable()) {
+                    bodyVariables.add(term.getValue());
+                }
+            }
+        }
+        for (Term term : query.getHead().getTerms()) {
+            if (term.isVariable() && !bodyVariables.contains(term.getValue())) {
+                throw new IllegalArgumentException("Unsafe query, head variable " + term.getValue()
+                        + " does not occur in the body: " + query);
+            }
+        }
+    }
+
+    // The query as a rule with every constant replaced by its parameter number, in order of
+    // appearance; variable and relation names are kept, since they name the columns of the plan
+    static String normalize(ConjunctiveQuery query) {
+        StringBuilder normalized = new StringBuilder();
+        int[] parameters = {0};
+        normalize(query.getHead(), normalized, parameters);
+        normalized.append(" :- ");
+        for (int i = 0; i < query.getBody().size(); i++) {
+            if (i > 0) {
+                normalized.append(", ");
+            }
+            normalize(query.getBody().get(i), normalized, parameters);
+        }
+        return normalized.toString();
+    }
+
+    private static void normalize(Atom atom, StringBuilder normalized, int[] parameters) {
+        normalized.append(atom.getRelationName()).append('(');
+        for (int i = 0; i < atom.getTerms().size(); i++) {
+            Term term = atom.getTerms().get(i);
+            if (i > 0) {
+                normalized.append(", ");
+            }
+            normalized.append(term.isVariable() ? term.getValue() : "$" + (++parameters[0]));
+        }
+        normalized.append(')');
+    }
+
+    // Constants of the bound query, in parameter order
+    List<String> getParameters() {
+        List<Atom> atoms = new ArrayList<>();
+        atoms.add(query.getHead());
+        atoms.addAll(query.getBody());
+        List<String> parameters = new ArrayList<>();
+        for (Atom atom : atoms) {
+            for (Term term : atom.getTerms()) {
+                if (!term.isVariable()) {
+                    parameters.add(term.getValue());
+                }
+            }
+        }
+        return parameters;
+    }
+
+    String getKey() {
+        return compiled.key;
+    }
+
+    ConjunctiveQuery getQuery() {
+        return query;
+    }
+
+    boolean isAcyclic() {
+        return tree != null;
+    }
+
+    JoinTree getJoinTree() {
+        return tree;
+    }
+
+    List<Main.PairChildParent> getSemiJoinsPostOrder() {
+        order();
+        return semiJoinsPostOrder;
+    }
+
+    List<Main.PairChildParent> getSemiJoinsPreOrder() {
+        order();
+        return semiJoinsPreOrder;
+    }
+
+    Set<String> getRequiredVariables() {
+        return compiled.requiredVariables;
+    }
+
+    List<String> getAnswerVariables() {
+        return compiled.answerVariables;
+    }
+
+    // What a query compiles to, shared by the plans of every query with the same normalized form and
+    // never modified once built: the join tree here is only copied, never run
+    private static final class Compiled {
+        private final String key;
+        private final JoinTree tree;                // null when the query is cyclic
+        private final int[] atomOfNode;             // node id -> position of its atom in the body
+        private final Set<String> requiredVariables;
+        private final List<String> answerVariables;
+
+        Compiled(String key, ConjunctiveQuery query) {
+            checkSafe(query);
+            this.key = key;
+            // The search's parent links are a join tree already: no GYO witness is needed
+            HyperGraph hyperGraph = query.buildHyperGraph();
+            this.tree = hyperGraph.isAcyclicMCS() ? hyperGraph.getJoinTree() : null;
+            this.requiredVariables = Collections.unmodifiableSet(query.getRequiredVariables());
+            this.answerVariables = Collections.unmodifiableList(query.getAnswerVariables());
+            if (tree == null) {
+                this.atomOfNode = new int[0];
+                return;
+            }
+            Map<Atom, Integer> positions = new IdentityHashMap<>();
+            for (int i = 0; i < query.getBody().size(); i++) {
+                positions.put(query.getBody().get(i), i);
+            }
+            this.atomOfNode = new int[tree.getSize()];
+            for (JoinTreeNode node : tree.getNodes()) {
+                atomOfNode[node.id] = positions.get(node.queryAtom);
+            }
+        }
+
+        // A copy of the join tree over the atoms of the query: same node ids, same shape, same child order
+        JoinTree bind(ConjunctiveQuery query) {
+            if (tree == null) {
+                return null;
+            }
+            JoinTreeNode[] nodes = new JoinTreeNode[tree.getSize()];
+            for (JoinTreeNode planned : tree.getNodes()) {
+                JoinTreeNode node = new JoinTreeNode(planned.atom, null, planned.name);
+                node.variables = planned.variables;
+                node.variableNames = planned.variableNames;
+                node.queryAtom = query.getBody().get(atomOfNode[planned.id]);
+                nodes[planned.id] = node;
+            }
+            JoinTree bound = new JoinTree();
+            bound.setRoot(nodes[tree.getRoot().id]);
+            // Nodes are registered in id order, as in the planned tree, and siblings were attached in that order
+            for (JoinTreeNode planned : tree.getNodes()) {
+                if (planned.parent != null) {
+                    bound.attach(nodes[planned.parent.id], nodes[planned.id]);
+                }
+            }
+            return bound;
+        }
+    }
+}
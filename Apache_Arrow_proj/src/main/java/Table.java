@@ -0,0 +1,116 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.vector.VectorLoader;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.VectorUnloader;
+import org.apache.arrow.vector.ipc.ArrowReader;
+import org.apache.arrow.vector.ipc.message.ArrowRecordBatch;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+// A relation held in memory as a sequence of record batches that all belong to the table. Batches
+// coming from a reader (whose root is reused and overwritten by every loadNextBatch) are loaded into
+// roots of their own with VectorUnloader/VectorLoader: the new root takes references on the same
+// buffers, nothing is copied, and the reader drops its own references when it moves on.
+// The batches stay valid, and can be shared by any number of operators, until close() releases them.
+final class Table implements AutoCloseable, Iterable<VectorSchemaRoot> {
+    private final Schema schema;
+    private final List<VectorSchemaRoot> batches = new ArrayList<>();
+    private long rowCount = 0;
+    private boolean closed = false;
+
+    Table(Schema schema) {
+        this.schema = schema;
+    }
+
+    // Takes ownership of the given batches
+    static Table of(Schema schema, List<VectorSchemaRoot> batches) {
+        Table table = new Table(schema);
+        batches.forEach(table::append);
+        return table;
+    }
+
+    // Drains a reader: every batch gets a root of its own, allocated from the given allocator
+    static Table read(ArrowReader reader, BufferAllocator allocator) throws IOException {
+        Table table = new Table(reader.getVectorSchemaRoot().getSchema());
+        try {
+            while (reader.loadNextBatch()) {
+                table.appendFrom(reader.getVectorSchemaRoot(), allocator);
+            }
+        } catch (IOException | RuntimeException e) {
+            table.close();
+            throw e;
+        }
+        return table;
+    }
+
+    // Takes ownership of the batch
+    void append(VectorSchemaRoot batch) {
+        checkOpen();
+        batches.add(batch);
+        rowCount += batch.getRowCount();
+    }
+
+    // Adds the current content of a root that belongs to someone else (typically a reader's) as a new
+    // batch of the table, sharing its buffers
+    void appendFrom(VectorSchemaRoot root, BufferAllocator allocator) {
+        checkOpen();
+        VectorSchemaRoot owned = VectorSchemaRoot.create(root.getSchema(), allocator);
+        try (ArrowRecordBatch recordBatch = new VectorUnloader(root).getRecordBatch()) {
+            new VectorLoader(owned).load(recordBatch);
+        } catch (RuntimeException e) {
+            owned.close();
+            throw e;
+        }
+        append(owned);
+    }
+
+    Schema getSchema() {
+        return schema;
+    }
+
+    long getRowCount() {
+        return rowCount;
+    }
+
+    int getBatchCount() {
+        return batches.size();
+    }
+
+    VectorSchemaRoot getBatch(int index) {
+        checkOpen();
+        return batches.get(index);
+    }
+
+    // Read-only view of the batches, still owned by the table
+    List<VectorSchemaRoot> getBatches() {
+        checkOpen();
+        return Collections.unmodifiableList(batches);
+    }
+
+    @Override
+    public Iterator<VectorSchemaRoot> iterator() {
+        return getBatches().iterator();
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Table is closed");
+        }
+    }
+
+    // Releases every batch; closing twice is harmless
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        batches.forEach(VectorSchemaRoot::close);
+        batches.clear();
+    }
+}
@@ -0,0 +1,94 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+// Compares the GYO loop of HyperGraph.isAcyclic() with the maximum cardinality search of
+// HyperGraph.isAcyclicMCS() on large synthetic acyclic hypergraphs.
+// Each hypergraph is generated from a random join tree: every edge shares one or two vertices with
+// an earlier edge and adds a few fresh ones; edges are then shuffled so the input order gives no hint.
+// GYO is skipped for the larger sizes once a single run exceeds GYO_BUDGET_MILLIS. Hyperedges are
+// bitsets over the variable ids, so every edge costs (number of variables / 8) bytes: the largest
+// sizes are bounded by the heap, not by the search.
+// Not a test: it lives with them so it is not shipped, run it from the test classpath.
+public class AcyclicityBenchmark {
+    private static final int[] SIZES = {10, 25, 50, 100, 200, 400, 1000, 10_000, 50_000};
+    private static final long GYO_BUDGET_MILLIS = 10_000;
+    private static final int RUNS = 5;
+
+    static HyperGraph randomAcyclicHyperGraph(int edges, Random random) {
+        List<List<String>> vertices = new ArrayList<>();
+        int nextVertex = 0;
+        for (int e = 0; e < edges; e++) {
+            List<String> edge = new ArrayList<>();
+            if (e > 0) {
+                List<String> parent = vertices.get(random.nextInt(e));
+                int shared = 1 + random.nextInt(Math.min(2, parent.size()));
+                List<String> candidates = new ArrayList<>(parent);
+                Collections.shuffle(candidates, random);
+                edge.addAll(candidates.subList(0, shared));
+            }
+            int fresh = 1 + random.nextInt(3);
+            for (int i = 0; i < fresh; i++) {
+                edge.add("v" + nextVertex++);
+            }
+            vertices.add(edge);
+        }
+        Collections.shuffle(vertices, random);
+
+        HyperGraph hyperGraph = new HyperGraph();
+        for (int e = 0; e < edges; e++) {
+            hyperGraph.addHyper("R" + e, new HashSet<>(vertices.get(e)));
+        }
+        return hyperGraph;
+    }
+
+    // Best of RUNS, in milliseconds; negative when the check failed or rejected the hypergraph
+    private static double time(HyperGraph hyperGraph, boolean mcs) {
+        double best = Double.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            boolean acyclic;
+            try {
+                acyclic = mcs ? hyperGraph.isAcyclicMCS() : hyperGraph.isAcyclic();
+            } catch (RuntimeException e) {
+                return -1;
+            }
+            double millis = (System.nanoTime() - start) / 1e6;
+            if (!acyclic) {
+                return -1;
+            }
+            best = Math.min(best, millis);
+            if (millis > GYO_BUDGET_MILLIS) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+
+        // Warm up both paths so the JIT does not end up in the first measurements
+        for (int i = 0; i < 20; i++) {
+            HyperGraph warmUp = randomAcyclicHyperGraph(50, random);
+            warmUp.isAcyclic();
+            warmUp.isAcyclicMCS();
+        }
+
+        System.out.printf("%10s %14s %14s%n", "edges", "GYO (ms)", "MCS (ms)");
+        boolean runGyo = true;
+        for (int edges : SIZES) {
+            HyperGraph hyperGraph = randomAcyclicHyperGraph(edges, random);
+            String gyo = "skipped";
+            if (runGyo) {
+                double millis = time(hyperGraph, false);
+                gyo = millis < 0 ? "failed" : String.format("%.3f", millis);
+                runGyo = millis >= 0 && millis < GYO_BUDGET_MILLIS;
+            }
+            double mcs = time(hyperGraph, true);
+            System.out.printf("%10d %14s %14s%n", edges, gyo, mcs < 0 ? "failed" : String.format("%.3f", mcs));
+        }
+    }
+}
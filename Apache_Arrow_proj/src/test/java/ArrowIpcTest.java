@@ -0,0 +1,92 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Relations written by ArrowIpc read back with the same schema, batches, values and nulls
+class ArrowIpcTest {
+    @TempDir
+    Path directory;
+
+    private static final Schema SCHEMA = new Schema(Arrays.asList(
+            Field.nullable("id", new ArrowType.Int(64, true)),
+            Field.nullable("name", ArrowType.Utf8.INSTANCE)));
+
+    // One batch with the given ids and names; a null entry is a null value
+    private static VectorSchemaRoot batch(BufferAllocator allocator, Long[] ids, String[] names) {
+        VectorSchemaRoot root = VectorSchemaRoot.create(SCHEMA, allocator);
+        BigIntVector idVector = (BigIntVector) root.getVector("id");
+        VarCharVector nameVector = (VarCharVector) root.getVector("name");
+        root.allocateNew();
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == null) {
+                idVector.setNull(i);
+            } else {
+                idVector.setSafe(i, ids[i]);
+            }
+            if (names[i] == null) {
+                nameVector.setNull(i);
+            } else {
+                nameVector.setSafe(i, names[i].getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        root.setRowCount(ids.length);
+        return root;
+    }
+
+    @Test
+    void batchesRoundTrip() throws Exception {
+        Path file = directory.resolve("r" + ArrowIpc.EXTENSION);
+        try (BufferAllocator allocator = new RootAllocator()) {
+            List<VectorSchemaRoot> written = new ArrayList<>();
+            written.add(batch(allocator, new Long[] {1L, null, -3L}, new String[] {"a", "", null}));
+            written.add(batch(allocator, new Long[] {Long.MAX_VALUE}, new String[] {"héllo, \"w\""}));
+            List<VectorSchemaRoot> read = new ArrayList<>();
+            try {
+                ArrowIpc.write(file, SCHEMA, written, allocator);
+                read.addAll(ArrowIpc.read(file, allocator));
+
+                assertEquals(written.size(), read.size());
+                for (int b = 0; b < written.size(); b++) {
+                    VectorSchemaRoot expected = written.get(b);
+                    VectorSchemaRoot actual = read.get(b);
+                    assertEquals(SCHEMA, actual.getSchema());
+                    assertEquals(expected.getRowCount(), actual.getRowCount());
+                    assertTrue(expected.equals(actual), "batch " + b + " differs: " + actual.contentToTSVString());
+                }
+                VarCharVector names = (VarCharVector) read.get(0).getVector("name");
+                // The empty string stays apart from the null next to it
+                assertEquals(0, names.getValueLength(1));
+                assertTrue(!names.isNull(1) && names.isNull(2));
+            } finally {
+                written.forEach(VectorSchemaRoot::close);
+                read.forEach(VectorSchemaRoot::close);
+            }
+        }
+    }
+
+    @Test
+    void emptyRelationReadsBackEmpty() throws Exception {
+        Path file = directory.resolve("empty" + ArrowIpc.EXTENSION);
+        try (BufferAllocator allocator = new RootAllocator()) {
+            ArrowIpc.write(file, SCHEMA, new ArrayList<>(), allocator);
+            List<VectorSchemaRoot> read = ArrowIpc.read(file, allocator);
+            assertEquals(0, read.size());
+        }
+    }
+}
@@ -0,0 +1,135 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.DateDayVector;
+import org.apache.arrow.vector.DateMilliVector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.SmallIntVector;
+import org.apache.arrow.vector.TimeStampMilliTZVector;
+import org.apache.arrow.vector.TimeStampSecVector;
+import org.apache.arrow.vector.TinyIntVector;
+import org.apache.arrow.vector.UInt4Vector;
+import org.apache.arrow.vector.ValueVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.junit.jupiter.api.Test;
+
+// Constant filters of AtomScan: the constant is read as the column's type, nulls never match
+class AtomScanTest {
+    // Rows of the column equal to the constant
+    private static int[] matching(ValueVector column, String constant) {
+        int[] rows = new int[column.getValueCount()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i;
+        }
+        return Arrays.copyOf(rows, AtomScan.filterEquals(column, constant, rows, rows.length));
+    }
+
+    @Test
+    void integerColumnsCompareWithoutOverflow() {
+        try (BufferAllocator allocator = new RootAllocator();
+             IntVector ints = new IntVector("i", allocator);
+             SmallIntVector shorts = new SmallIntVector("s", allocator);
+             TinyIntVector bytes = new TinyIntVector("t", allocator);
+             UInt4Vector unsigned = new UInt4Vector("u", allocator)) {
+            ints.allocateNew(4);
+            shorts.allocateNew(4);
+            bytes.allocateNew(4);
+            unsigned.allocateNew(4);
+            int[] values = {7, -7, 44, 7};
+            for (int i = 0; i < 4; i++) {
+                ints.set(i, values[i]);
+                shorts.set(i, values[i]);
+                bytes.set(i, values[i]);
+                unsigned.set(i, values[i]);
+            }
+            ints.setNull(3);
+            ints.setValueCount(4);
+            shorts.setValueCount(4);
+            bytes.setValueCount(4);
+            unsigned.setValueCount(4);
+
+            assertArrayEquals(new int[] {0}, matching(ints, "7"));
+            assertArrayEquals(new int[] {1}, matching(shorts, " -7 "));
+            assertArrayEquals(new int[] {0, 3}, matching(bytes, "7"));
+            // 44 + 256 would wrap onto 44 if the constant were cast to the column's width
+            assertArrayEquals(new int[0], matching(bytes, "300"));
+            assertArrayEquals(new int[0], matching(ints, "seven"));
+            // -7 is stored as 4294967289 in an unsigned column
+            assertArrayEquals(new int[] {1}, matching(unsigned, "4294967289"));
+            assertArrayEquals(new int[0], matching(unsigned, "-7"));
+        }
+    }
+
+    @Test
+    void timestampsMatchTheirCsvText() {
+        LocalDateTime time = LocalDateTime.of(2010, 7, 22, 20, 0, 20);
+        try (BufferAllocator allocator = new RootAllocator();
+             TimeStampSecVector seconds = new TimeStampSecVector("ts", allocator);
+             TimeStampMilliTZVector millis = new TimeStampMilliTZVector("tz", allocator, "UTC")) {
+            seconds.allocateNew(3);
+            millis.allocateNew(3);
+            seconds.set(0, time.toEpochSecond(ZoneOffset.UTC));
+            seconds.set(1, time.toEpochSecond(ZoneOffset.UTC) + 1);
+            seconds.setNull(2);
+            millis.set(0, time.toEpochSecond(ZoneOffset.UTC) * 1000 + 500);
+            millis.set(1, time.toEpochSecond(ZoneOffset.UTC) * 1000);
+            millis.setNull(2);
+            seconds.setValueCount(3);
+            millis.setValueCount(3);
+
+            assertArrayEquals(new int[] {0}, matching(seconds, "2010-07-22 20:00:20"));
+            assertArrayEquals(new int[] {0}, matching(seconds, "2010-07-22T20:00:20"));
+            assertArrayEquals(new int[] {1}, matching(seconds, "2010-07-22 22:00:21+02:00"));
+            // A fraction the column cannot hold matches nothing
+            assertArrayEquals(new int[0], matching(seconds, "2010-07-22 20:00:20.5"));
+            assertArrayEquals(new int[] {0}, matching(millis, "2010-07-22 20:00:20.500"));
+            assertArrayEquals(new int[] {1}, matching(millis, "2010-07-22T20:00:20Z"));
+            assertArrayEquals(new int[0], matching(millis, "not a time"));
+        }
+    }
+
+    @Test
+    void datesMatchTheirCsvText() {
+        LocalDate date = LocalDate.of(2010, 7, 22);
+        try (BufferAllocator allocator = new RootAllocator();
+             DateDayVector days = new DateDayVector("d", allocator);
+             DateMilliVector millis = new DateMilliVector("m", allocator)) {
+            days.allocateNew(2);
+            millis.allocateNew(2);
+            days.set(0, (int) date.toEpochDay());
+            days.set(1, (int) date.toEpochDay() + 1);
+            millis.set(0, date.toEpochDay() * 86_400_000L);
+            millis.set(1, date.toEpochDay() * 86_400_000L + 1);
+            days.setValueCount(2);
+            millis.setValueCount(2);
+
+            assertArrayEquals(new int[] {0}, matching(days, "2010-07-22"));
+            assertArrayEquals(new int[] {1}, matching(days, "2010-07-23"));
+            assertArrayEquals(new int[] {0}, matching(millis, "2010-07-22"));
+            assertArrayEquals(new int[0], matching(days, "22/07/2010"));
+        }
+    }
+
+    @Test
+    void stringsCompareTheirBytes() {
+        try (BufferAllocator allocator = new RootAllocator();
+             VarCharVector strings = new VarCharVector("s", allocator)) {
+            strings.allocateNew(3);
+            strings.setSafe(0, "Belgian and French Ale".getBytes(StandardCharsets.UTF_8));
+            strings.setSafe(1, "Belgian".getBytes(StandardCharsets.UTF_8));
+            strings.setNull(2);
+            strings.setValueCount(3);
+
+            assertArrayEquals(new int[] {0}, matching(strings, "Belgian and French Ale"));
+            assertArrayEquals(new int[] {1}, matching(strings, "Belgian"));
+            assertArrayEquals(new int[0], matching(strings, ""));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.UInt4Vector;
+import org.apache.arrow.vector.ValueVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.junit.jupiter.api.Test;
+
+// Bloom filters never drop a key that was added, and let through about the configured share of the others
+class BloomFilterTest {
+    @Test
+    void noFalseNegativesAndRateNearTarget() {
+        int keys = 20_000;
+        try (BufferAllocator allocator = new RootAllocator();
+             BigIntVector build = new BigIntVector("k", allocator);
+             BigIntVector probe = new BigIntVector("k", allocator)) {
+            Random random = new Random(7);
+            build.allocateNew(keys);
+            probe.allocateNew(10 * keys);
+            for (int i = 0; i < keys; i++) {
+                build.set(i, random.nextLong());
+            }
+            for (int i = 0; i < 10 * keys; i++) {
+                probe.set(i, random.nextLong());
+            }
+            build.setValueCount(keys);
+            probe.setValueCount(10 * keys);
+
+            BloomFilter.Metrics metrics = new BloomFilter.Metrics();
+            BloomFilter bloom = BloomFilter.create(keys, 0.01, 1 << 20, metrics);
+            ValueVector[] buildColumns = {build};
+            ValueVector[] probeColumns = {probe};
+            for (int row = 0; row < keys; row++) {
+                bloom.add(BloomFilter.hash(buildColumns, row));
+            }
+            for (int row = 0; row < keys; row++) {
+                assertTrue(bloom.mightContain(BloomFilter.hash(buildColumns, row)));
+            }
+            int passed = 0;
+            for (int row = 0; row < probe.getValueCount(); row++) {
+                if (bloom.mightContain(BloomFilter.hash(probeColumns, row))) {
+                    passed++;
+                }
+            }
+            bloom.record(probe.getValueCount(), passed, 0);
+            assertEquals(1, metrics.getFilters());
+            assertEquals(passed, metrics.getPassed());
+            assertTrue(bloom.observedFalsePositiveRate() < 0.02, "rate " + bloom.observedFalsePositiveRate());
+        }
+    }
+
+    @Test
+    void equalKeysHashAlikeAcrossVectors() {
+        try (BufferAllocator allocator = new RootAllocator();
+             IntVector ints = new IntVector("i", allocator);
+             UInt4Vector unsigned = new UInt4Vector("u", allocator);
+             VarCharVector left = new VarCharVector("l", allocator);
+             VarCharVector right = new VarCharVector("r", allocator)) {
+            ints.allocateNew(2);
+            unsigned.allocateNew(2);
+            left.allocateNew();
+            right.allocateNew();
+            ints.set(0, 42);
+            unsigned.set(1, 42);
+            left.setSafe(0, "a longer string than eight bytes".getBytes(StandardCharsets.UTF_8));
+            right.setSafe(0, "x".getBytes(StandardCharsets.UTF_8));
+            right.setSafe(1, "a longer string than eight bytes".getBytes(StandardCharsets.UTF_8));
+            ints.setValueCount(2);
+            unsigned.setValueCount(2);
+            left.setValueCount(1);
+            right.setValueCount(2);
+
+            // Rows live at different positions and in different buffers: only the values count
+            assertEquals(BloomFilter.hash(new ValueVector[] {ints, left}, 0),
+                    BloomFilter.hash(new ValueVector[] {unsigned, right}, 1));
+            assertTrue(BloomFilter.hash(new ValueVector[] {left}, 0) != BloomFilter.hash(new ValueVector[] {right}, 0));
+        }
+    }
+}
@@ -0,0 +1,187 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BaseVariableWidthVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.junit.jupiter.api.Test;
+
+// Concatenated batches hold every row of the sources in order: values, nulls and string offsets
+class ConcatenationTest {
+    private static final Schema SCHEMA = new Schema(Arrays.asList(
+            Field.nullable("i", new ArrowType.Int(32, true)),
+            Field.nullable("s", ArrowType.Utf8.INSTANCE),
+            Field.nullable("b", ArrowType.Bool.INSTANCE)));
+
+    // Row r of the expected relation: null when r is a multiple of nullEvery (never when it is 0)
+    private static Integer intAt(int r, int nullEvery) {
+        return nullEvery > 0 && r % nullEvery == 0 ? null : r * 31 - 500;
+    }
+
+    private static String stringAt(int r, int nullEvery) {
+        return nullEvery > 0 && r % nullEvery == 1 ? null : r % 5 == 0 ? "" : "row " + r + " é".repeat(r % 3);
+    }
+
+    // One batch of the given size holding rows [first, first + size) of the expected relation
+    private static VectorSchemaRoot batch(BufferAllocator allocator, int first, int size, int nullEvery) {
+        VectorSchemaRoot root = VectorSchemaRoot.create(SCHEMA, allocator);
+        root.allocateNew();
+        IntVector ints = (IntVector) root.getVector("i");
+        VarCharVector strings = (VarCharVector) root.getVector("s");
+        BitVector bits = (BitVector) root.getVector("b");
+        for (int k = 0; k < size; k++) {
+            int r = first + k;
+            Integer value = intAt(r, nullEvery);
+            if (value == null) {
+                ints.setNull(k);
+                bits.setNull(k);
+            } else {
+                ints.setSafe(k, value);
+                bits.setSafe(k, value & 1);
+            }
+            String string = stringAt(r, nullEvery);
+            if (string == null) {
+                strings.setNull(k);
+            } else {
+                strings.setSafe(k, string.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        root.setRowCount(size);
+        return root;
+    }
+
+    private static void assertRows(VectorSchemaRoot result, int[] sizes, int[] nullEvery) {
+        IntVector ints = (IntVector) result.getVector("i");
+        VarCharVector strings = (VarCharVector) result.getVector("s");
+        BitVector bits = (BitVector) result.getVector("b");
+        int row = 0;
+        int first = 0;
+        for (int b = 0; b < sizes.length; b++) {
+            for (int k = 0; k < sizes[b]; k++, row++) {
+                Integer value = intAt(first + k, nullEvery[b]);
+                String string = stringAt(first + k, nullEvery[b]);
+                assertEquals(value == null, ints.isNull(row), "null int at " + row);
+                assertEquals(value == null, bits.isNull(row), "null bit at " + row);
+                if (value != null) {
+                    assertEquals((int) value, ints.get(row), "int at " + row);
+                    assertEquals(value & 1, bits.get(row), "bit at " + row);
+                }
+                assertEquals(string == null, strings.isNull(row), "null string at " + row);
+                if (string != null) {
+                    assertEquals(string, new String(strings.get(row), StandardCharsets.UTF_8), "string at " + row);
+                }
+            }
+            first += sizes[b];
+        }
+        assertEquals(row, result.getRowCount());
+    }
+
+    @Test
+    void validityBitsLineUpAtEveryOffset() {
+        // Batches start on and off byte boundaries, with and without nulls, one of them empty
+        int[] sizes = {3, 0, 13, 8, 5, 1, 7, 17};
+        int[] nullEvery = {3, 0, 4, 0, 2, 0, 7, 5};
+        try (BufferAllocator allocator = new RootAllocator()) {
+            List<VectorSchemaRoot> batches = new ArrayList<>();
+            int first = 0;
+            for (int b = 0; b < sizes.length; b++) {
+                batches.add(batch(allocator, first, sizes[b], nullEvery[b]));
+                first += sizes[b];
+            }
+            try (VectorSchemaRoot result = Concatenation.concatenate(batches, allocator)) {
+                assertRows(result, sizes, nullEvery);
+            } finally {
+                batches.forEach(VectorSchemaRoot::close);
+            }
+        }
+    }
+
+    @Test
+    void offsetsAreRebasedOntoTheOutput() {
+        Random random = new Random(9);
+        int[] sizes = new int[12];
+        int[] nullEvery = new int[sizes.length];
+        for (int b = 0; b < sizes.length; b++) {
+            sizes[b] = random.nextInt(40);
+            nullEvery[b] = random.nextInt(6);
+        }
+        try (BufferAllocator allocator = new RootAllocator()) {
+            List<VectorSchemaRoot> batches = new ArrayList<>();
+            int first = 0;
+            long bytes = 0;
+            for (int b = 0; b < sizes.length; b++) {
+                VectorSchemaRoot batch = batch(allocator, first, sizes[b], nullEvery[b]);
+                batches.add(batch);
+                first += sizes[b];
+                VarCharVector strings = (VarCharVector) batch.getVector("s");
+                for (int k = 0; k < sizes[b]; k++) {
+                    bytes += strings.isNull(k) ? 0 : strings.getValueLength(k);
+                }
+            }
+            try (VectorSchemaRoot result = Concatenation.concatenate(batches, allocator)) {
+                assertRows(result, sizes, nullEvery);
+                VarCharVector strings = (VarCharVector) result.getVector("s");
+                assertEquals(0, strings.getStartOffset(0));
+                assertEquals(bytes, result.getRowCount() == 0 ? 0
+                        : strings.getOffsetBuffer().getInt((long) result.getRowCount() * BaseVariableWidthVector.OFFSET_WIDTH));
+            } finally {
+                batches.forEach(VectorSchemaRoot::close);
+            }
+        }
+    }
+
+    @Test
+    void coalesceMergesRunsUpToTheTarget() {
+        int[] sizes = {2, 2, 2, 10, 1, 1};
+        int[] nullEvery = {2, 0, 3, 4, 0, 0};
+        try (BufferAllocator allocator = new RootAllocator()) {
+            List<VectorSchemaRoot> batches = new ArrayList<>();
+            int first = 0;
+            for (int b = 0; b < sizes.length; b++) {
+                batches.add(batch(allocator, first, sizes[b], nullEvery[b]));
+                first += sizes[b];
+            }
+            VectorSchemaRoot large = batches.get(3);
+            List<VectorSchemaRoot> coalesced = Concatenation.coalesce(batches, 5, allocator);
+            try {
+                assertEquals(4, coalesced.size());
+                assertEquals(4, coalesced.get(0).getRowCount());
+                assertEquals(2, coalesced.get(1).getRowCount());
+                // A batch merged with nothing is passed through
+                assertSame(large, coalesced.get(2));
+                assertEquals(2, coalesced.get(3).getRowCount());
+                try (VectorSchemaRoot all = Concatenation.concatenate(coalesced, allocator)) {
+                    assertRows(all, sizes, nullEvery);
+                }
+            } finally {
+                coalesced.forEach(VectorSchemaRoot::close);
+            }
+            // The merged batches were released by coalesce
+            assertEquals(0, allocator.getAllocatedMemory());
+        }
+    }
+
+    @Test
+    void emptyListIsRejected() {
+        try (BufferAllocator allocator = new RootAllocator()) {
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                    () -> Concatenation.concatenate(List.of(), allocator));
+            assertTrue(e.getMessage().contains("empty"));
+        }
+    }
+}
@@ -0,0 +1,134 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// CSV output of CsvWriter: RFC 4180 quoting, nulls apart from empty strings, numbers as Java prints them
+class CsvWriterTest {
+    @TempDir
+    Path directory;
+
+    private static final Schema SCHEMA = new Schema(Arrays.asList(
+            Field.nullable("name", ArrowType.Utf8.INSTANCE),
+            Field.nullable("id", new ArrowType.Int(64, true)),
+            Field.nullable("small", new ArrowType.Int(32, true)),
+            Field.nullable("abv", new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE)),
+            Field.nullable("flag", ArrowType.Bool.INSTANCE)));
+
+    // Writes the rows, each {name, id, small, abv, flag} with null for a null cell, and reads the file back
+    private String write(int bufferSize, Object[]... rows) throws Exception {
+        Path file = directory.resolve("out.csv");
+        try (BufferAllocator allocator = new RootAllocator();
+             VectorSchemaRoot root = VectorSchemaRoot.create(SCHEMA, allocator)) {
+            root.allocateNew();
+            VarCharVector names = (VarCharVector) root.getVector("name");
+            BigIntVector ids = (BigIntVector) root.getVector("id");
+            IntVector smalls = (IntVector) root.getVector("small");
+            Float8Vector abvs = (Float8Vector) root.getVector("abv");
+            BitVector flags = (BitVector) root.getVector("flag");
+            for (int i = 0; i < rows.length; i++) {
+                Object[] row = rows[i];
+                if (row[0] == null) {
+                    names.setNull(i);
+                } else {
+                    names.setSafe(i, ((String) row[0]).getBytes(StandardCharsets.UTF_8));
+                }
+                if (row[1] == null) {
+                    ids.setNull(i);
+                } else {
+                    ids.setSafe(i, (Long) row[1]);
+                }
+                if (row[2] == null) {
+                    smalls.setNull(i);
+                } else {
+                    smalls.setSafe(i, (Integer) row[2]);
+                }
+                if (row[3] == null) {
+                    abvs.setNull(i);
+                } else {
+                    abvs.setSafe(i, (Double) row[3]);
+                }
+                if (row[4] == null) {
+                    flags.setNull(i);
+                } else {
+                    flags.setSafe(i, (Boolean) row[4] ? 1 : 0);
+                }
+            }
+            root.setRowCount(rows.length);
+            try (CsvWriter writer = new CsvWriter(file, bufferSize)) {
+                writer.write(SCHEMA, List.of(root));
+            }
+        }
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void quotesOnlyWhenNeeded() throws Exception {
+        String csv = write(CsvWriter.BUFFER_SIZE,
+                new Object[] {"plain", 1L, 2, 0.5, true},
+                new Object[] {"a, b", 2L, 3, 1.0, false},
+                new Object[] {"say \"hi\"", 3L, 4, 2.25, true},
+                new Object[] {"two\nlines", 4L, 5, 3.0, false},
+                new Object[] {"café", 5L, 6, 4.0, true});
+        assertEquals("name,id,small,abv,flag\n"
+                + "plain,1,2,0.5,true\n"
+                + "\"a, b\",2,3,1.0,false\n"
+                + "\"say \"\"hi\"\"\",3,4,2.25,true\n"
+                + "\"two\nlines\",4,5,3.0,false\n"
+                + "café,5,6,4.0,true\n", csv);
+    }
+
+    @Test
+    void emptyStringIsNotNull() throws Exception {
+        String csv = write(CsvWriter.BUFFER_SIZE,
+                new Object[] {"", 1L, null, null, null},
+                new Object[] {null, null, 0, 0.0, false});
+        assertEquals("name,id,small,abv,flag\n"
+                + "\"\",1,,,\n"
+                + ",,0,0.0,false\n", csv);
+    }
+
+    @Test
+    void integersKeepEveryDigit() throws Exception {
+        String csv = write(CsvWriter.BUFFER_SIZE,
+                new Object[] {"min", Long.MIN_VALUE, Integer.MIN_VALUE, -0.0, true},
+                new Object[] {"max", Long.MAX_VALUE, Integer.MAX_VALUE, 1e300, true},
+                new Object[] {"tens", -1000L, 10, 1e-7, true});
+        assertEquals("name,id,small,abv,flag\n"
+                + "min," + Long.MIN_VALUE + "," + Integer.MIN_VALUE + ",-0.0,true\n"
+                + "max," + Long.MAX_VALUE + "," + Integer.MAX_VALUE + ",1.0E300,true\n"
+                + "tens,-1000,10,1.0E-7,true\n", csv);
+    }
+
+    @Test
+    void smallBufferGivesTheSameOutput() throws Exception {
+        StringBuilder longName = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            longName.append("x\"y,");
+        }
+        Object[][] rows = new Object[200][];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new Object[] {i % 7 == 0 ? longName.toString() : "name " + i, (long) i * 1_000_003, -i, i / 8.0, i % 2 == 0};
+        }
+        // Values larger than the buffer and quotes that straddle a flush
+        assertEquals(write(CsvWriter.BUFFER_SIZE, rows), write(64, rows));
+    }
+}
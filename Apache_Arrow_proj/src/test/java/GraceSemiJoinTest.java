@@ -0,0 +1,171 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// The spilled semi-join keeps exactly the rows of the in-memory one, whatever the partitioning
+class GraceSemiJoinTest {
+    @TempDir
+    Path directory;
+
+    private static final Schema SCHEMA = new Schema(Arrays.asList(
+            Field.nullable("k", new ArrowType.Int(64, true)),
+            Field.nullable("s", ArrowType.Utf8.INSTANCE)));
+    private static final List<String> KEY = List.of("k", "s");
+
+    private Path spillDirectory;
+    private boolean useArrowHashTable;
+    private long semiJoinMemoryBudget;
+    private BufferAllocator allocator;
+    private final List<VectorSchemaRoot> batches = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        spillDirectory = GraceSemiJoin.spillDirectory;
+        useArrowHashTable = Main.useArrowHashTable;
+        semiJoinMemoryBudget = Main.semiJoinMemoryBudget;
+        GraceSemiJoin.spillDirectory = directory;
+        allocator = new RootAllocator();
+    }
+
+    @AfterEach
+    void tearDown() {
+        GraceSemiJoin.spillDirectory = spillDirectory;
+        Main.useArrowHashTable = useArrowHashTable;
+        Main.semiJoinMemoryBudget = semiJoinMemoryBudget;
+        batches.forEach(VectorSchemaRoot::close);
+        allocator.close();
+    }
+
+    // Batches of the given sizes, keys drawn from [0, distinctKeys) with about one null in twenty on
+    // either column; the string column repeats the key so equal pairs come from equal keys
+    private List<VectorSchemaRoot> relation(Random random, int distinctKeys, int... batchSizes) {
+        List<VectorSchemaRoot> relation = new ArrayList<>();
+        for (int size : batchSizes) {
+            VectorSchemaRoot root = VectorSchemaRoot.create(SCHEMA, allocator);
+            batches.add(root);
+            root.allocateNew();
+            BigIntVector keys = (BigIntVector) root.getVector("k");
+            VarCharVector strings = (VarCharVector) root.getVector("s");
+            for (int row = 0; row < size; row++) {
+                long key = random.nextInt(distinctKeys);
+                if (random.nextInt(20) == 0) {
+                    keys.setNull(row);
+                } else {
+                    keys.setSafe(row, key);
+                }
+                if (random.nextInt(20) == 0) {
+                    strings.setNull(row);
+                } else {
+                    strings.setSafe(row, ("value " + key % 7).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            root.setRowCount(size);
+            relation.add(root);
+        }
+        return relation;
+    }
+
+    // Every other row of the batches with an odd index, every row of the others
+    private static int[][] selection(List<VectorSchemaRoot> relation) {
+        int[][] selection = new int[relation.size()][];
+        for (int b = 1; b < selection.length; b += 2) {
+            selection[b] = new int[(relation.get(b).getRowCount() + 1) / 2];
+            for (int i = 0; i < selection[b].length; i++) {
+                selection[b][i] = 2 * i;
+            }
+        }
+        return selection;
+    }
+
+    private static void assertSameSelection(int[][] expected, int[][] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int b = 0; b < expected.length; b++) {
+            assertArrayEquals(expected[b], actual[b], "batch " + b);
+        }
+    }
+
+    @Test
+    void agreesWithTheInMemorySemiJoin() {
+        Random random = new Random(11);
+        List<VectorSchemaRoot> left = relation(random, 3000, 2500, 1700, 3000);
+        List<VectorSchemaRoot> right = relation(random, 3000, 900, 1200);
+        int[][] leftSelection = selection(left);
+        int[][] rightSelection = selection(right);
+
+        for (int partitions : new int[] {2, 16, GraceSemiJoin.MAX_PARTITIONS}) {
+            GraceSemiJoin.Metrics metrics = new GraceSemiJoin.Metrics();
+            assertSameSelection(Main.semiJoinSelection(left, null, right, null, KEY),
+                    GraceSemiJoin.selection(left, null, right, null, KEY, partitions, Long.MAX_VALUE, allocator, metrics));
+            assertSameSelection(Main.semiJoinSelection(left, leftSelection, right, rightSelection, KEY),
+                    GraceSemiJoin.selection(left, leftSelection, right, rightSelection, KEY, partitions, Long.MAX_VALUE,
+                            allocator, metrics));
+            assertEquals(2, metrics.getJoins());
+        }
+    }
+
+    @Test
+    void oversizedPartitionsAreSplitAgain() {
+        Random random = new Random(5);
+        List<VectorSchemaRoot> left = relation(random, 20_000, 6000, 6000);
+        // Many distinct keys, and one key no split can spread
+        List<VectorSchemaRoot> right = relation(random, 20_000, 8000);
+        right.addAll(relation(random, 1, 3000));
+        long liveRows = 0;
+        for (VectorSchemaRoot batch : left) {
+            liveRows += batch.getRowCount();
+        }
+        for (VectorSchemaRoot batch : right) {
+            liveRows += batch.getRowCount();
+        }
+
+        GraceSemiJoin.Metrics metrics = new GraceSemiJoin.Metrics();
+        assertSameSelection(Main.semiJoinSelection(left, null, right, null, KEY),
+                GraceSemiJoin.selection(left, null, right, null, KEY, 2, 4096, allocator, metrics));
+        // Rows are written once per level they go through: more than were live means a deeper level ran
+        assertTrue(metrics.getRows() > liveRows, metrics.toString());
+    }
+
+    @Test
+    void heapKeySetSpillsOverBudget() {
+        Random random = new Random(3);
+        List<VectorSchemaRoot> left = relation(random, 5000, 4000, 4000);
+        List<VectorSchemaRoot> right = relation(random, 5000, 5000);
+        int[][] expected = Main.semiJoinSelection(left, null, right, null, KEY);
+
+        Main.useArrowHashTable = false;
+        Main.semiJoinMemoryBudget = 16 * 1024;
+        GraceSemiJoin.Metrics metrics = new GraceSemiJoin.Metrics();
+        assertSameSelection(expected, Main.semiJoinSelection(left, null, right, null, KEY, allocator, null, metrics));
+        assertEquals(1, metrics.getJoins());
+    }
+
+    @Test
+    void emptyBuildSideKeepsNothing() {
+        Random random = new Random(1);
+        List<VectorSchemaRoot> left = relation(random, 100, 50, 60);
+        List<VectorSchemaRoot> right = relation(random, 100, 0);
+        int[][] matches = GraceSemiJoin.selection(left, null, right, null, KEY, 4, 4096, allocator, null);
+        assertArrayEquals(new int[0], matches[0]);
+        assertArrayEquals(new int[0], matches[1]);
+    }
+}
@@ -0,0 +1,107 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+// The maximum cardinality search must agree with the GYO reduction, and its join tree must be one
+class MaximumCardinalitySearchTest {
+    @Test
+    void triangleIsCyclic() {
+        HyperGraph hyperGraph = hyperGraph(List.of(Set.of("a", "b"), Set.of("b", "c"), Set.of("c", "a")));
+        assertFalse(hyperGraph.isAcyclicMCS());
+        assertFalse(hyperGraph.isAcyclic());
+    }
+
+    @Test
+    void coveredTriangleIsAcyclic() {
+        HyperGraph hyperGraph = hyperGraph(List.of(
+                Set.of("a", "b"), Set.of("b", "c"), Set.of("c", "a"), Set.of("a", "b", "c")));
+        assertTrue(hyperGraph.isAcyclicMCS());
+        assertJoinTree(hyperGraph.getJoinTree(), 4);
+    }
+
+    @Test
+    void generatedAcyclicHyperGraphsAreAccepted() {
+        Random random = new Random(1);
+        for (int i = 0; i < 200; i++) {
+            int edges = 1 + random.nextInt(60);
+            HyperGraph hyperGraph = AcyclicityBenchmark.randomAcyclicHyperGraph(edges, random);
+            assertTrue(hyperGraph.isAcyclicMCS(), "hypergraph " + i);
+            assertJoinTree(hyperGraph.getJoinTree(), edges);
+        }
+    }
+
+    @Test
+    void agreesWithGyoOnRandomHyperGraphs() {
+        Random random = new Random(2);
+        int acyclic = 0;
+        for (int i = 0; i < 2000; i++) {
+            int edgeCount = 1 + random.nextInt(7);
+            List<Set<String>> edges = new ArrayList<>();
+            for (int e = 0; e < edgeCount; e++) {
+                Set<String> edge = new HashSet<>();
+                int size = 1 + random.nextInt(3);
+                while (edge.size() < size) {
+                    edge.add("v" + random.nextInt(6));
+                }
+                edges.add(edge);
+            }
+            boolean gyo = hyperGraph(edges).isAcyclic();
+            HyperGraph hyperGraph = hyperGraph(edges);
+            assertEquals(gyo, hyperGraph.isAcyclicMCS(), "edges " + edges);
+            if (gyo) {
+                assertJoinTree(hyperGraph.getJoinTree(), edgeCount);
+                acyclic++;
+            }
+        }
+        // Both verdicts must actually occur for the comparison to mean anything
+        assertTrue(acyclic > 200 && acyclic < 1800, acyclic + " acyclic");
+    }
+
+    private static HyperGraph hyperGraph(List<Set<String>> edges) {
+        HyperGraph hyperGraph = new HyperGraph();
+        for (int e = 0; e < edges.size(); e++) {
+            hyperGraph.addHyper("R" + e, edges.get(e));
+        }
+        return hyperGraph;
+    }
+
+    // Every edge is a node, and the nodes holding any one variable form a connected subtree: within a
+    // tree, that is the case exactly when they are linked by one parent-child pair fewer than there are
+    private static void assertJoinTree(JoinTree tree, int edges) {
+        assertNotNull(tree.getRoot());
+        Map<String, Integer> nodes = new HashMap<>();
+        Map<String, Integer> links = new HashMap<>();
+        int nodeCount = 0;
+        Deque<JoinTreeNode> pending = new ArrayDeque<>();
+        pending.push(tree.getRoot());
+        while (!pending.isEmpty()) {
+            JoinTreeNode node = pending.pop();
+            nodeCount++;
+            for (String variable : node.atom) {
+                nodes.merge(variable, 1, Integer::sum);
+                if (node.parent != null && node.parent.atom.contains(variable)) {
+                    links.merge(variable, 1, Integer::sum);
+                }
+            }
+            node.children.forEach(pending::push);
+        }
+        assertEquals(edges, nodeCount);
+        for (Map.Entry<String, Integer> entry : nodes.entrySet()) {
+            assertEquals(entry.getValue() - 1, (int) links.getOrDefault(entry.getKey(), 0),
+                    "nodes with " + entry.getKey() + " are not connected");
+        }
+    }
+}
@@ -0,0 +1,60 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+// Datalog rules parsed by QueryParser: variables, quoted and numeric constants, anonymous variables
+class QueryParserTest {
+    @Test
+    void parsesVariablesAndConstants() {
+        ConjunctiveQuery query = QueryParser.parse(
+                "Answer(beer) :-\n  Beers(beer_id, beer, 'O''Brien', -4.5e2),  Styles(beer_id, \"say \"\"hi\"\"\", 12)");
+        assertEquals("Answer", query.getHead().getRelationName());
+        assertEquals(1, query.getHead().getTerms().size());
+        assertEquals(2, query.getBody().size());
+
+        List<Term> beers = query.getBody().get(0).getTerms();
+        assertEquals("Beers", query.getBody().get(0).getRelationName());
+        assertTrue(beers.get(0).isVariable() && beers.get(1).isVariable());
+        assertFalse(beers.get(2).isVariable());
+        assertEquals("O'Brien", beers.get(2).getValue());
+        assertEquals("-4.5e2", beers.get(3).getValue());
+
+        List<Term> styles = query.getBody().get(1).getTerms();
+        assertEquals("say \"hi\"", styles.get(1).getValue());
+        assertFalse(styles.get(2).isVariable());
+        assertEquals("12", styles.get(2).getValue());
+    }
+
+    @Test
+    void anonymousVariablesAreFreshAndApart() {
+        ConjunctiveQuery query = QueryParser.parse("Answer(x) :- R(x, _, _1), S(_, _1).");
+        List<Term> r = query.getBody().get(0).getTerms();
+        List<Term> s = query.getBody().get(1).getTerms();
+        assertTrue(r.get(1).isVariable() && s.get(0).isVariable());
+        // Every _ is a variable of its own, and none of them is the user's _1
+        assertNotEquals(r.get(1).getValue(), s.get(0).getValue());
+        assertNotEquals("_1", r.get(1).getValue());
+        assertNotEquals("_1", s.get(0).getValue());
+        assertEquals("_1", r.get(2).getValue());
+        assertEquals("_1", s.get(1).getValue());
+    }
+
+    @Test
+    void rejectsMalformedQueries() {
+        for (String text : new String[] {
+                "Answer(x) R(x)",
+                "Answer(x) :- R(x, 'open)",
+                "Answer(x) :- R(x) extra",
+                "Answer(x) :- 1R(x)",
+                "Answer(x) :- R(x,)",
+                "Answer(x) :- R(1.2.3)"}) {
+            assertThrows(IllegalArgumentException.class, () -> QueryParser.parse(text), text);
+        }
+    }
+}
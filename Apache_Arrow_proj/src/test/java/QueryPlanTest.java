@@ -0,0 +1,123 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// Plans are cached under the normalized query, and every plan handed out has a join tree of its own
+class QueryPlanTest {
+    private static final String CHAIN = "Answer(a) :- R(a, b, 'x'), S(b, c), T(c, 7)";
+
+    private int cacheCapacity;
+
+    @BeforeEach
+    void setUp() {
+        cacheCapacity = QueryPlan.cacheCapacity;
+        QueryPlan.clearCache();
+    }
+
+    @AfterEach
+    void tearDown() {
+        QueryPlan.cacheCapacity = cacheCapacity;
+        QueryPlan.clearCache();
+    }
+
+    private static boolean containsSame(List<Atom> atoms, Atom atom) {
+        for (Atom candidate : atoms) {
+            if (candidate == atom) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    void otherConstantsReuseTheCompiledPlan() {
+        long hits = QueryPlan.HITS.sum();
+        long misses = QueryPlan.MISSES.sum();
+        QueryPlan first = QueryPlan.of(CHAIN);
+        QueryPlan second = QueryPlan.of("Answer(a) :- R(a, b, 'y'), S(b, c), T(c, 8)");
+        assertEquals(misses + 1, QueryPlan.MISSES.sum());
+        assertEquals(hits + 1, QueryPlan.HITS.sum());
+        assertEquals("Answer(a) :- R(a, b, $1), S(b, c), T(c, $2)", first.getKey());
+        assertEquals(first.getKey(), second.getKey());
+        assertEquals(List.of("x", "7"), first.getParameters());
+        assertEquals(List.of("y", "8"), second.getParameters());
+    }
+
+    @Test
+    void everyPlanHasItsOwnTree() {
+        ConjunctiveQuery firstQuery = QueryParser.parse(CHAIN);
+        ConjunctiveQuery secondQuery = QueryParser.parse("Answer(a) :- R(a, b, 'y'), S(b, c), T(c, 8)");
+        QueryPlan first = QueryPlan.of(firstQuery);
+        QueryPlan second = QueryPlan.of(secondQuery);
+        assertTrue(first.isAcyclic() && second.isAcyclic());
+        assertNotSame(first.getJoinTree(), second.getJoinTree());
+
+        List<JoinTreeNode> firstNodes = first.getJoinTree().getNodes();
+        List<JoinTreeNode> secondNodes = second.getJoinTree().getNodes();
+        assertEquals(3, firstNodes.size());
+        assertEquals(firstNodes.size(), secondNodes.size());
+        for (int i = 0; i < firstNodes.size(); i++) {
+            JoinTreeNode a = firstNodes.get(i);
+            JoinTreeNode b = secondNodes.get(i);
+            assertNotSame(a, b);
+            // Same shape, each bound to the atoms of its own query
+            assertEquals(a.id, b.id);
+            assertEquals(a.parent == null ? -1 : a.parent.id, b.parent == null ? -1 : b.parent.id);
+            assertTrue(containsSame(firstQuery.getBody(), a.queryAtom));
+            assertTrue(containsSame(secondQuery.getBody(), b.queryAtom));
+            assertEquals(a.queryAtom.getRelationName(), b.queryAtom.getRelationName());
+        }
+        assertEquals(2, first.getSemiJoinsPostOrder().size());
+        assertEquals(2, second.getSemiJoinsPreOrder().size());
+    }
+
+    @Test
+    void leastRecentlyUsedPlanIsEvicted() {
+        QueryPlan.cacheCapacity = 2;
+        String a = "Answer(x) :- A(x, y), B(y)";
+        String b = "Answer(x) :- B(x)";
+        String c = "Answer(x) :- C(x, 'c')";
+        QueryPlan.of(a);
+        QueryPlan.of(b);
+        QueryPlan.of(a);
+        long misses = QueryPlan.MISSES.sum();
+        // b is now the least recently used: c takes its place
+        QueryPlan.of(c);
+        QueryPlan.of(a);
+        assertEquals(misses + 1, QueryPlan.MISSES.sum());
+        QueryPlan.of(b);
+        assertEquals(misses + 2, QueryPlan.MISSES.sum());
+    }
+
+    @Test
+    void disabledCacheCompilesEveryTime() {
+        QueryPlan.cacheCapacity = 0;
+        long misses = QueryPlan.MISSES.sum();
+        QueryPlan.of(CHAIN);
+        QueryPlan.of(CHAIN);
+        assertEquals(misses + 2, QueryPlan.MISSES.sum());
+    }
+
+    @Test
+    void unsafeHeadIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> QueryPlan.of("Answer(x) :- R(y)"));
+        assertThrows(IllegalArgumentException.class, () -> QueryPlan.compile("Answer(x, y) :- R(x, _)"));
+        // Constants in the head need no binding
+        assertTrue(QueryPlan.of("Answer(x, 'c') :- R(x)").isAcyclic());
+    }
+
+    @Test
+    void cyclicQueryHasNoTree() {
+        QueryPlan plan = QueryPlan.of("Answer(a) :- R(a, b), S(b, c), T(c, a)");
+        assertFalse(plan.isAcyclic());
+        assertEquals(0, plan.getSemiJoinsPostOrder().size());
+    }
+}
@@ -0,0 +1,328 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// The full reducer followed by the enumerator gives the same bag of answers as a nested-loop join of the
+// atoms, on random acyclic queries (constants, self-joins, repeated variables, nulls, several batches)
+// and whichever semi-join, index, dictionary and ordering options are on
+class YannakakisTest {
+    @TempDir
+    Path directory;
+
+    // Every relation has these columns; a variable only ever lands on columns of one type
+    private static final Schema SCHEMA = new Schema(Arrays.asList(
+            Field.nullable("a", new ArrowType.Int(64, true)),
+            Field.nullable("b", ArrowType.Utf8.INSTANCE),
+            Field.nullable("c", new ArrowType.Int(64, true))));
+    private static final boolean[] IS_STRING = {false, true, false};
+    private static final int RELATIONS = 3;
+    private static final int DOMAIN = 4;
+
+    private boolean useHashSemiJoin;
+    private boolean useArrowHashTable;
+    private long semiJoinMemoryBudget;
+    private boolean useGraceSemiJoin;
+    private boolean useKeyDictionary;
+    private boolean coalesceBatches;
+    private boolean reorderJoinTree;
+    private boolean parallelReducer;
+    private boolean parallelProbe;
+    private boolean useBloomFilter;
+    private double bloomProbeRatio;
+    private Path spillDirectory;
+
+    @BeforeEach
+    void setUp() {
+        useHashSemiJoin = Main.useHashSemiJoin;
+        useArrowHashTable = Main.useArrowHashTable;
+        semiJoinMemoryBudget = Main.semiJoinMemoryBudget;
+        useGraceSemiJoin = Main.useGraceSemiJoin;
+        useKeyDictionary = Main.useKeyDictionary;
+        coalesceBatches = Main.coalesceBatches;
+        reorderJoinTree = Main.reorderJoinTree;
+        parallelReducer = Main.parallelReducer;
+        parallelProbe = Main.parallelProbe;
+        useBloomFilter = Main.useBloomFilter;
+        bloomProbeRatio = Main.bloomProbeRatio;
+        spillDirectory = GraceSemiJoin.spillDirectory;
+        GraceSemiJoin.spillDirectory = directory;
+        QueryPlan.clearCache();
+    }
+
+    @AfterEach
+    void tearDown() {
+        Main.useHashSemiJoin = useHashSemiJoin;
+        Main.useArrowHashTable = useArrowHashTable;
+        Main.semiJoinMemoryBudget = semiJoinMemoryBudget;
+        Main.useGraceSemiJoin = useGraceSemiJoin;
+        Main.useKeyDictionary = useKeyDictionary;
+        Main.coalesceBatches = coalesceBatches;
+        Main.reorderJoinTree = reorderJoinTree;
+        Main.parallelReducer = parallelReducer;
+        Main.parallelProbe = parallelProbe;
+        Main.useBloomFilter = useBloomFilter;
+        Main.bloomProbeRatio = bloomProbeRatio;
+        GraceSemiJoin.spillDirectory = spillDirectory;
+        QueryPlan.clearCache();
+    }
+
+    // Value of a column in the test's terms: a long, a string, or null
+    private static String value(Random random, int column) {
+        if (random.nextInt(10) == 0) {
+            return null;
+        }
+        int v = random.nextInt(DOMAIN);
+        return IS_STRING[column] ? "v" + v : Integer.toString(v);
+    }
+
+    // Rows of a relation split over one to three batches, some of them empty
+    private static List<String[]> rows(Random random) {
+        List<String[]> rows = new ArrayList<>();
+        int count = random.nextInt(25);
+        for (int r = 0; r < count; r++) {
+            String[] row = new String[IS_STRING.length];
+            for (int c = 0; c < row.length; c++) {
+                row[c] = value(random, c);
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static List<VectorSchemaRoot> batches(List<String[]> rows, Random random, BufferAllocator allocator) {
+        int batchCount = 1 + random.nextInt(3);
+        List<VectorSchemaRoot> batches = new ArrayList<>();
+        int from = 0;
+        for (int b = 0; b < batchCount; b++) {
+            int to = b == batchCount - 1 ? rows.size() : from + random.nextInt(rows.size() - from + 1);
+            VectorSchemaRoot root = VectorSchemaRoot.create(SCHEMA, allocator);
+            root.allocateNew();
+            for (int r = from; r < to; r++) {
+                String[] row = rows.get(r);
+                for (int c = 0; c < row.length; c++) {
+                    FieldVector vector = root.getVector(c);
+                    if (row[c] == null) {
+                        vector.setNull(r - from);
+                    } else if (IS_STRING[c]) {
+                        ((VarCharVector) vector).setSafe(r - from, row[c].getBytes(StandardCharsets.UTF_8));
+                    } else {
+                        ((BigIntVector) vector).setSafe(r - from, Long.parseLong(row[c]));
+                    }
+                }
+            }
+            root.setRowCount(to - from);
+            batches.add(root);
+            from = to;
+        }
+        return batches;
+    }
+
+    // A random acyclic query: every atom after the first shares one or two variables with an earlier
+    // atom (none when that atom has none, which makes a cross product), its other positions hold fresh
+    // variables, constants or "_". The atoms holding any one variable stay connected, so the atoms
+    // form a join tree.
+    private static String query(Random random) {
+        int atomCount = 1 + random.nextInt(4);
+        List<List<String>> atomVariables = new ArrayList<>();
+        Map<String, Integer> columnOf = new HashMap<>();
+        List<String> headCandidates = new ArrayList<>();
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < atomCount; i++) {
+            String[] terms = new String[IS_STRING.length];
+            if (i > 0) {
+                List<String> shared = new ArrayList<>(atomVariables.get(random.nextInt(i)));
+                int wanted = 1 + random.nextInt(2);
+                for (int s = 0; s < wanted && !shared.isEmpty(); s++) {
+                    String variable = shared.remove(random.nextInt(shared.size()));
+                    int column = columnOf.get(variable);
+                    // a long variable may go to either long column
+                    if (!IS_STRING[column] && random.nextBoolean()) {
+                        column = 2 - column;
+                    }
+                    if (terms[column] == null) {
+                        terms[column] = variable;
+                    }
+                }
+            }
+            List<String> variables = new ArrayList<>();
+            for (int c = 0; c < terms.length; c++) {
+                if (terms[c] == null) {
+                    // the first atom binds at least one variable, so the head has one to project on
+                    int kind = i == 0 && c == 0 ? 9 : random.nextInt(10);
+                    if (kind == 0) {
+                        String constant = value(random, c);
+                        terms[c] = constant == null ? "_" : IS_STRING[c] ? "'" + constant + "'" : constant;
+                    } else if (kind == 1) {
+                        terms[c] = "_";
+                    } else if (kind == 2 && c == 2 && terms[0] != null && columnOf.containsKey(terms[0])) {
+                        terms[c] = terms[0];
+                    } else {
+                        terms[c] = "x" + columnOf.size();
+                        columnOf.put(terms[c], c);
+                        headCandidates.add(terms[c]);
+                    }
+                }
+                if (columnOf.containsKey(terms[c]) && !variables.contains(terms[c])) {
+                    variables.add(terms[c]);
+                }
+            }
+            atomVariables.add(variables);
+            body.append(i == 0 ? "" : ", ").append("R").append(random.nextInt(RELATIONS))
+                    .append('(').append(String.join(", ", terms)).append(')');
+        }
+        List<String> head = new ArrayList<>();
+        for (String variable : headCandidates) {
+            if (random.nextInt(3) > 0) {
+                head.add(variable);
+            }
+        }
+        if (head.isEmpty()) {
+            head.add(headCandidates.get(0));
+        }
+        return "Answer(" + String.join(", ", head) + ") :- " + body;
+    }
+
+    // Answers by trying every combination of rows, atom after atom. A variable seen more than once in
+    // the body only binds non-null values (nulls join with nothing), one seen once binds anything.
+    private static Map<List<String>, Integer> bruteForce(ConjunctiveQuery query, Map<String, List<String[]>> relations) {
+        Map<String, Integer> occurrences = new HashMap<>();
+        for (Atom atom : query.getBody()) {
+            for (Term term : atom.getTerms()) {
+                if (term.isVariable()) {
+                    occurrences.merge(term.getValue(), 1, Integer::sum);
+                }
+            }
+        }
+        Map<List<String>, Integer> answers = new HashMap<>();
+        bruteForce(query, relations, occurrences, 0, new HashMap<>(), answers);
+        return answers;
+    }
+
+    private static void bruteForce(ConjunctiveQuery query, Map<String, List<String[]>> relations,
+                                   Map<String, Integer> occurrences, int atomIndex, Map<String, String> binding,
+                                   Map<List<String>, Integer> answers) {
+        if (atomIndex == query.getBody().size()) {
+            List<String> answer = new ArrayList<>();
+            for (Term term : query.getHead().getTerms()) {
+                answer.add(binding.get(term.getValue()));
+            }
+            answers.merge(answer, 1, Integer::sum);
+            return;
+        }
+        Atom atom = query.getBody().get(atomIndex);
+        List<Term> terms = atom.getTerms();
+        for (String[] row : relations.get(atom.getRelationName().toLowerCase())) {
+            Map<String, String> extended = new HashMap<>(binding);
+            boolean matches = true;
+            for (int c = 0; c < terms.size() && matches; c++) {
+                Term term = terms.get(c);
+                if (!term.isVariable()) {
+                    matches = row[c] != null && row[c].equals(term.getValue());
+                } else if (occurrences.get(term.getValue()) > 1) {
+                    String bound = extended.putIfAbsent(term.getValue(), row[c]);
+                    matches = row[c] != null && (bound == null || bound.equals(row[c]));
+                } else {
+                    extended.put(term.getValue(), row[c]);
+                }
+            }
+            if (matches) {
+                bruteForce(query, relations, occurrences, atomIndex + 1, extended, answers);
+            }
+        }
+    }
+
+    private static Map<List<String>, Integer> reduceAndEnumerate(QueryPlan plan, Catalog catalog, BufferAllocator allocator) {
+        Map<List<String>, Integer> answers = new HashMap<>();
+        try (Main.ReducedDatabase reduced = Main.fullReducer(plan, catalog, allocator);
+             JoinEnumerator enumerator = new JoinEnumerator(plan.getJoinTree(), reduced, plan.getAnswerVariables(), 7,
+                     allocator)) {
+            VectorSchemaRoot batch = enumerator.getVectorSchemaRoot();
+            while (enumerator.loadNextBatch()) {
+                for (int row = 0; row < batch.getRowCount(); row++) {
+                    List<String> answer = new ArrayList<>();
+                    for (FieldVector vector : batch.getFieldVectors()) {
+                        Object value = vector.getObject(row);
+                        answer.add(value == null ? null : value.toString());
+                    }
+                    answers.merge(answer, 1, Integer::sum);
+                }
+            }
+        }
+        return answers;
+    }
+
+    private void check(long seed, int queries) {
+        Random random = new Random(seed);
+        try (BufferAllocator allocator = new RootAllocator()) {
+            for (int q = 0; q < queries; q++) {
+                Map<String, List<String[]>> relations = new HashMap<>();
+                try (Catalog catalog = new Catalog(allocator)) {
+                    for (int r = 0; r < RELATIONS; r++) {
+                        List<String[]> rows = rows(random);
+                        relations.put("r" + r, rows);
+                        catalog.put("R" + r, batches(rows, random, allocator));
+                    }
+                    String text = query(random);
+                    QueryPlan plan = QueryPlan.of(text);
+                    assertTrue(plan.isAcyclic(), text);
+                    assertEquals(bruteForce(QueryParser.parse(text), relations), reduceAndEnumerate(plan, catalog, allocator),
+                            text);
+                }
+                assertEquals(0, allocator.getAllocatedMemory(), "memory left after query " + q);
+            }
+        }
+    }
+
+    @Test
+    void defaultOptionsMatchBruteForce() {
+        check(1, 300);
+    }
+
+    @Test
+    void heapStructuresAndFixedTreeMatchBruteForce() {
+        Main.useArrowHashTable = false;
+        Main.useKeyDictionary = false;
+        Main.coalesceBatches = false;
+        Main.reorderJoinTree = false;
+        Main.parallelReducer = false;
+        Main.parallelProbe = false;
+        Main.useBloomFilter = false;
+        check(2, 300);
+    }
+
+    @Test
+    void nestedLoopSemiJoinMatchesBruteForce() {
+        Main.useHashSemiJoin = false;
+        check(3, 150);
+    }
+
+    @Test
+    void bloomFiltersAndSpilledSemiJoinsMatchBruteForce() {
+        // Every semi-join gets a filter and goes to disk
+        Main.bloomProbeRatio = 0;
+        Main.semiJoinMemoryBudget = 1;
+        check(4, 150);
+    }
+}